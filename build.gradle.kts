@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.Share"
@@ -18,4 +19,28 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Engine benchmarks in src/jmh/java, run with ./gradlew jmh. -PjmhThreads=8 runs
+// them from 8 threads, -PjmhIncludes=purchaseShare picks benchmarks and
+// -PjmhProfilers=gc,stack changes the profilers. Results are written as JSON to
+// build/results/jmh/results.json for comparing against a baseline.
+jmh {
+    jmhVersion.set("1.37")
+    threads.set((findProperty("jmhThreads") as String? ?: "1").toInt())
+    profilers.set((findProperty("jmhProfilers") as String? ?: "gc").split(","))
+    (findProperty("jmhIncludes") as String?)?.let { includes.set(listOf(it)) }
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    timeOnIteration.set("2s")
+    resultFormat.set("JSON")
+}
+
+// The load generators and startup harnesses next to the JMH benchmarks have their
+// own main methods and stay out of the server jar. Run one with
+// ./gradlew harness -PharnessMain=org.benchmark.ThroughputBenchmark --args="..."
+tasks.register<JavaExec>("harness") {
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set(findProperty("harnessMain") as String? ?: "org.benchmark.ThroughputBenchmark")
+}
@@ -0,0 +1,104 @@
+package org.benchmark;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.Service;
+import org.server.ShareMarketServer;
+import org.server.ShareMarketServerImpl;
+import org.server.TradeOrder;
+import org.server.TradeResult;
+
+// Measures the cost per order of executeOrders at growing batch sizes against one
+// purchaseShare/sellShare call per order. Orders alternate purchase and sell of
+// one share so capacity never runs out. The market journals to a temporary
+// directory, so every call also waits for its group commit.
+//   local  calls the market directly
+//   soap   publishes it on a local port and calls through a JAX-WS port, adding a
+//          SOAP/HTTP round trip per call
+//
+// Usage: BatchTradeBenchmark [ordersPerRun] [batchSizes] [local|soap] [port]
+//   e.g. BatchTradeBenchmark 20000 1,10,100,1000 soap
+public class BatchTradeBenchmark {
+
+    private static final String BUYER = "BTBB0001";
+
+    public static void main(String[] args) throws Exception {
+        int ordersPerRun = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int[] batchSizes = Arrays.stream((args.length > 1 ? args[1] : "1,10,100,1000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        boolean soap = args.length > 2 && args[2].equals("soap");
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18190;
+        System.setProperty("journal.snapshotEveryRecords", String.valueOf(Long.MAX_VALUE));
+
+        Path directory = Files.createTempDirectory("batch-bench");
+        ShareMarketServerImpl impl = new ShareMarketServerImpl("BatchBench", 0);
+        impl.enablePersistence(directory.toString());
+        impl.addShare("BTBM000001", "Equity", Integer.MAX_VALUE);
+        Endpoint endpoint = null;
+        ShareMarketServer market = impl;
+        if (soap) {
+            String url = "http://localhost:" + port + "/ShareMarketService";
+            endpoint = Endpoint.publish(url, impl);
+            market = Service.create(new URL(url + "?wsdl"),
+                    new QName("http://server.org/", "ShareMarketServerImplService")).getPort(ShareMarketServer.class);
+        }
+        try {
+            System.out.println("mode=" + (soap ? "soap" : "local") + " orders=" + ordersPerRun);
+            System.out.println("batch\tus/order\torders/s\tfailed");
+            run(market, 0, Math.max(1, ordersPerRun / 10)); // warm-up
+            report("single", ordersPerRun, run(market, 0, ordersPerRun));
+            for (int batchSize : batchSizes) {
+                run(market, batchSize, Math.max(batchSize, ordersPerRun / 10));
+                report(String.valueOf(batchSize), ordersPerRun, run(market, batchSize, ordersPerRun));
+            }
+        } finally {
+            if (endpoint != null) {
+                endpoint.stop();
+            }
+            impl.getJournal().close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // batchSize 0 sends every order as its own purchaseShare or sellShare call;
+    // returns {elapsed nanos, failed orders}
+    private static long[] run(ShareMarketServer market, int batchSize, int orders) {
+        long failed = 0;
+        long started = System.nanoTime();
+        if (batchSize == 0) {
+            for (int i = 0; i < orders; i++) {
+                String result = i % 2 == 0
+                        ? market.purchaseShare(BUYER, "BTBM000001", "Equity", 1)
+                        : market.sellShare(BUYER, "BTBM000001", "Equity", 1);
+                if (!result.contains("successfully")) {
+                    failed++;
+                }
+            }
+            return new long[] {System.nanoTime() - started, failed};
+        }
+        TradeOrder[] batch = new TradeOrder[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new TradeOrder(i % 2 == 0 ? TradeOrder.Side.PURCHASE : TradeOrder.Side.SELL, "BTBM000001", "Equity", 1);
+        }
+        for (int sent = 0; sent < orders; sent += batchSize) {
+            for (TradeResult result : market.executeOrders(BUYER, batch)) {
+                if (!result.isSuccess()) {
+                    failed++;
+                }
+            }
+        }
+        return new long[] {System.nanoTime() - started, failed};
+    }
+
+    private static void report(String batch, int orders, long[] run) {
+        System.out.printf("%s\t%.1f\t%.0f\t%d%n", batch, run[0] / 1e3 / orders, orders / (run[0] / 1e9), run[1]);
+    }
+}
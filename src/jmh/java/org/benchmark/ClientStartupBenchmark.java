@@ -0,0 +1,89 @@
+package org.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import javax.xml.ws.Endpoint;
+import org.client.MarketPorts;
+import org.server.ShareMarketServer;
+import org.server.ShareMarketServerImpl;
+
+// Measures what a client pays before it can trade: building its port, and its
+// first purchaseShare, once with the WSDL fetched from the server
+// (-Dclient.remoteWsdl=true, the old behaviour) and once from the bundled copy.
+// Each run is a fresh client JVM, since a warm JVM hides most of the cost.
+// Reports the median and worst of the runs; JVM boot itself is not counted.
+//
+// Usage: ClientStartupBenchmark [runs] [port]
+public class ClientStartupBenchmark {
+
+    private static final String MARKET = "StartupBench";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            child();
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 18800;
+        String url = "http://localhost:" + port + "/ShareMarketService";
+
+        ShareMarketServerImpl market = new ShareMarketServerImpl(MARKET, 0);
+        market.addShare("STBM000001", "Equity", Integer.MAX_VALUE);
+        Endpoint endpoint = Endpoint.publish(url, market);
+        try {
+            System.out.println("wsdl\truns\tport p50 ms\tport max ms\tfirst trade p50 ms\tfirst trade max ms");
+            for (boolean remote : new boolean[] {true, false}) {
+                long[] ready = new long[runs];
+                long[] traded = new long[runs];
+                for (int i = 0; i < runs; i++) {
+                    long[] run = runChild(url, remote);
+                    ready[i] = run[0];
+                    traded[i] = run[1];
+                }
+                Arrays.sort(ready);
+                Arrays.sort(traded);
+                System.out.printf("%s\t%d\t%.1f\t%.1f\t%.1f\t%.1f%n", remote ? "remote" : "bundled", runs,
+                        ready[runs / 2] / 1e6, ready[runs - 1] / 1e6, traded[runs / 2] / 1e6, traded[runs - 1] / 1e6);
+            }
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    // Returns {nanos until the port was ready, nanos until the first trade returned}
+    private static long[] runChild(String url, boolean remote) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dmarket.url." + MARKET + "=" + url, "-Dclient.remoteWsdl=" + remote,
+                ClientStartupBenchmark.class.getName(), "child")
+                .redirectErrorStream(true).start();
+        long[] result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    String[] fields = line.split(" ");
+                    result = new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Client run failed with exit code " + process.exitValue());
+        }
+        return result;
+    }
+
+    private static void child() throws Exception {
+        long started = System.nanoTime();
+        ShareMarketServer port = MarketPorts.forMarket(MARKET);
+        long ready = System.nanoTime();
+        String response = port.purchaseShare("STBB0001", "STBM000001", "Equity", 1);
+        long traded = System.nanoTime();
+        if (!response.contains("successfully")) {
+            throw new IllegalStateException(response);
+        }
+        System.out.println("RESULT " + (ready - started) + " " + (traded - started));
+    }
+}
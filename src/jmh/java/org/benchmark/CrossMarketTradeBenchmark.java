@@ -0,0 +1,95 @@
+package org.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.ws.Endpoint;
+import org.server.ShareMarketServerImpl;
+import org.server.ShareMarketServerV2Impl;
+
+// Publishes a target market on a local port and measures purchaseRemoteShare
+// latency from a second, unpublished market, which calls the target's version 2
+// endpoint; once building a new JAX-WS Service and port per call
+// (-Dmarket.portPool=false, the old behaviour) and once through the pooled ports.
+// Each remote purchase is sold back so capacity never runs out.
+//
+// Usage: CrossMarketTradeBenchmark [callsPerThread] [threads] [port]
+public class CrossMarketTradeBenchmark {
+
+    private static final String TARGET = "BenchTarget";
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 18090;
+        String url = "http://localhost:" + port + "/ShareMarketService";
+        System.setProperty("market.url." + TARGET, url);
+
+        ShareMarketServerImpl target = new ShareMarketServerImpl(TARGET, 0);
+        target.addShare("BNTM000001", "Equity", Integer.MAX_VALUE);
+        Endpoint endpoint = Endpoint.publish(url, target);
+        Endpoint endpointV2 = Endpoint.publish(url + "V2", new ShareMarketServerV2Impl(target));
+        try {
+            System.out.println("mode\tthreads\tcalls\tmean ms\tp50 ms\tp99 ms\tcalls/s");
+            for (boolean pooled : new boolean[] {false, true}) {
+                System.setProperty("market.portPool", String.valueOf(pooled));
+                ShareMarketServerImpl caller = new ShareMarketServerImpl("BenchCaller", 0);
+                String mode = pooled ? "pooled" : "per-call";
+                run(caller, Math.max(1, calls / 10), 1); // warm-up
+                report(mode, 1, run(caller, calls, 1));
+                report(mode, threads, run(caller, calls, threads));
+            }
+        } finally {
+            endpointV2.stop();
+            endpoint.stop();
+        }
+    }
+
+    private static class Run {
+        final long[] latencies;
+        final long wallNanos;
+
+        Run(long[] latencies, long wallNanos) {
+            this.latencies = latencies;
+            this.wallNanos = wallNanos;
+        }
+    }
+
+    private static Run run(ShareMarketServerImpl caller, int calls, int threads) throws InterruptedException {
+        long[][] latencies = new long[threads][calls];
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        long started = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long[] mine = latencies[t];
+            String buyerID = "BNTB" + String.format("%04d", t);
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < calls; i++) {
+                    long callStarted = System.nanoTime();
+                    String result = caller.purchaseRemoteShare(buyerID, "BNTM000001", "Equity", 1, TARGET);
+                    mine[i] = System.nanoTime() - callStarted;
+                    if (!result.contains("successfully")) {
+                        failures.incrementAndGet();
+                    }
+                    caller.sellRemoteShare(buyerID, "BNTM000001", "Equity", 1, TARGET);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failures.get() > 0) {
+            System.err.println(failures.get() + " remote purchases failed");
+        }
+        long wall = System.nanoTime() - started;
+        return new Run(Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray(), wall);
+    }
+
+    private static void report(String mode, int threads, Run run) {
+        long[] all = run.latencies;
+        long wall = run.wallNanos;
+        double mean = Arrays.stream(all).average().orElse(0) / 1e6;
+        System.out.printf("%s\t%d\t%d\t%.2f\t%.2f\t%.2f\t%.0f%n", mode, threads, all.length, mean,
+                all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, all.length / (wall / 1e9));
+    }
+}
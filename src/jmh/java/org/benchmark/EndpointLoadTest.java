@@ -0,0 +1,149 @@
+package org.benchmark;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.Service;
+import org.server.EndpointExecutors;
+import org.server.ShareMarketServer;
+import org.server.ShareMarketServerImpl;
+
+// Publishes one market per executor mode and drives it with a growing number of
+// concurrent SOAP clients. Every request is listGlobalShareAvailability against a
+// fake peer that answers after peerDelayMs, so each request holds its endpoint
+// thread for that long the way a real cross-market call does. A mode keeps up as
+// long as completed calls/s grows with the number of clients.
+//
+// Usage: EndpointLoadTest [modes] [clientCounts] [secondsPerStep] [peerDelayMs]
+//   e.g. EndpointLoadTest virtual,bounded,jaxws 16,64,256,1024 10 50
+public class EndpointLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "virtual,bounded,jaxws").split(",");
+        int[] clientCounts = Arrays.stream((args.length > 1 ? args[1] : "16,64,256,1024").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int peerDelayMs = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        int peerPort = 18300;
+        startSlowPeer(peerPort, peerDelayMs);
+
+        System.out.println("mode\tclients\tcalls/s\tp50 ms\tp99 ms\terrors");
+        int httpPort = 18200;
+        for (String mode : modes) {
+            ShareMarketServerImpl market = new ShareMarketServerImpl("Load", 0);
+            market.addShare("LODM000001", "Equity", 1000);
+            market.addRemoteServer("SlowPeer", peerPort);
+            String address = "http://localhost:" + (httpPort++) + "/ShareMarketService";
+            Endpoint endpoint = Endpoint.create(market);
+            ExecutorService executor = EndpointExecutors.create(market.getCity(), mode);
+            if (executor != null) {
+                endpoint.setExecutor(executor);
+            }
+            endpoint.publish(address);
+            try {
+                Service service = Service.create(new URL(address + "?wsdl"),
+                        new QName("http://server.org/", "ShareMarketServerImplService"));
+                for (int clients : clientCounts) {
+                    step(mode, service, clients, seconds);
+                }
+            } finally {
+                endpoint.stop();
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+            }
+        }
+    }
+
+    private static void step(String mode, Service service, int clients, int seconds) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong errors = new AtomicLong();
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        int[] counts = new int[clients];
+        for (int c = 0; c < clients; c++) {
+            long[] mine = new long[1 << 16];
+            latencies.add(mine);
+            int client = c;
+            // One port per client thread; ports are not thread-safe
+            ShareMarketServer port = service.getPort(ShareMarketServer.class);
+            Thread thread = new Thread(() -> {
+                while (running.get()) {
+                    long started = System.nanoTime();
+                    try {
+                        port.listGlobalShareAvailability("Equity");
+                        if (counts[client] < mine.length) {
+                            mine[counts[client]] = System.nanoTime() - started;
+                        }
+                        counts[client]++;
+                    } catch (RuntimeException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+        }
+        long started = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long wall = System.nanoTime() - started;
+
+        long total = Arrays.stream(counts).asLongStream().sum();
+        long[] all = new long[(int) Math.min(Integer.MAX_VALUE, total)];
+        int n = 0;
+        for (int c = 0; c < clients; c++) {
+            int recorded = Math.min(counts[c], latencies.get(c).length);
+            System.arraycopy(latencies.get(c), 0, all, n, recorded);
+            n += recorded;
+        }
+        all = Arrays.copyOf(all, n);
+        Arrays.sort(all);
+        System.out.printf("%s\t%d\t%.0f\t%.1f\t%.1f\t%d%n", mode, clients, total / (wall / 1e9),
+                n == 0 ? 0 : all[n / 2] / 1e6, n == 0 ? 0 : all[(int) (n * 0.99)] / 1e6, errors.get());
+    }
+
+    // Answers LIST_AVAILABILITY after delayMs, one thread per request so the peer
+    // itself never becomes the bottleneck
+    private static void startSlowPeer(int port, int delayMs) throws Exception {
+        DatagramSocket socket = new DatagramSocket(port);
+        Thread receiver = new Thread(() -> {
+            byte[] buffer = new byte[4096];
+            while (true) {
+                try {
+                    DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(request);
+                    DatagramPacket reply = new DatagramPacket(new byte[0], 0, request.getSocketAddress());
+                    Thread responder = new Thread(() -> {
+                        try {
+                            Thread.sleep(delayMs);
+                            byte[] body = "Share: SLWM000001, Type: Equity, Available: 1".getBytes();
+                            reply.setData(body);
+                            socket.send(reply);
+                        } catch (Exception ignored) {
+                            // the client counts the missing reply
+                        }
+                    });
+                    responder.setDaemon(true);
+                    responder.start();
+                } catch (Exception e) {
+                    return;
+                }
+            }
+        }, "slow-peer");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+}
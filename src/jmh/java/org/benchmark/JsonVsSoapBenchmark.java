@@ -0,0 +1,163 @@
+package org.benchmark;
+
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.Service;
+import org.server.EndpointExecutors;
+import org.server.JsonHttpEndpoint;
+import org.server.ShareMarketServer;
+import org.server.ShareMarketServerImpl;
+
+// Drives one market through its SOAP endpoint and through its JSON endpoint with a
+// growing number of concurrent clients and reports calls/s and latency for each.
+// Every client alternates purchaseShare and sellShare of one share, so the work
+// behind each call is small and the cost of the protocol stack shows. Each client
+// has its own port or HttpClient and keeps its connection open across calls.
+//
+// Usage: JsonVsSoapBenchmark [modes] [clientCounts] [secondsPerStep] [port]
+//   e.g. JsonVsSoapBenchmark soap,json 1,8,64 10
+public class JsonVsSoapBenchmark {
+
+    private static final String SHARE = "JVSM000001";
+
+    private interface Client {
+        boolean call(boolean purchase) throws Exception;
+    }
+
+    private interface ClientFactory {
+        Client create(String buyerID) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = (args.length > 0 ? args[0] : "soap,json").split(",");
+        int[] clientCounts = Arrays.stream((args.length > 1 ? args[1] : "1,8,64").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18600;
+
+        ShareMarketServerImpl market = new ShareMarketServerImpl("JsonVsSoap", 0);
+        market.addShare(SHARE, "Equity", Integer.MAX_VALUE);
+
+        System.out.println("mode\tclients\tcalls/s\tp50 ms\tp99 ms\terrors");
+        for (String mode : modes) {
+            switch (mode) {
+                case "soap":
+                    String address = "http://localhost:" + port + "/ShareMarketService";
+                    Endpoint endpoint = EndpointExecutors.publish(address, market);
+                    try {
+                        Service service = Service.create(new URL(address + "?wsdl"),
+                                new QName("http://server.org/", "ShareMarketServerImplService"));
+                        run(mode, clientCounts, seconds, buyerID -> {
+                            ShareMarketServer soap = service.getPort(ShareMarketServer.class);
+                            return purchase -> (purchase
+                                    ? soap.purchaseShare(buyerID, SHARE, "Equity", 1)
+                                    : soap.sellShare(buyerID, SHARE, "Equity", 1)).contains("successfully");
+                        });
+                    } finally {
+                        endpoint.stop();
+                    }
+                    break;
+                case "json":
+                    JsonHttpEndpoint json = new JsonHttpEndpoint(market, port + 1);
+                    json.start();
+                    try {
+                        String base = "http://localhost:" + json.getPort() + "/market/";
+                        run(mode, clientCounts, seconds, buyerID -> {
+                            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                            String body = "{\"buyerID\":\"" + buyerID + "\",\"shareID\":\"" + SHARE
+                                    + "\",\"shareType\":\"Equity\",\"shareCount\":1}";
+                            HttpRequest purchaseRequest = HttpRequest.newBuilder(URI.create(base + "purchaseShare"))
+                                    .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+                            HttpRequest sellRequest = HttpRequest.newBuilder(URI.create(base + "sellShare"))
+                                    .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+                            return purchase -> {
+                                HttpResponse<String> response = http.send(purchase ? purchaseRequest : sellRequest,
+                                        HttpResponse.BodyHandlers.ofString());
+                                return response.statusCode() == 200 && response.body().startsWith("{\"status\":\"OK\"");
+                            };
+                        });
+                    } finally {
+                        json.stop();
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown mode " + mode);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int[] clientCounts, int seconds, ClientFactory factory) throws Exception {
+        step(mode, factory, 1, Math.max(1, seconds / 2), false); // warm-up
+        for (int clients : clientCounts) {
+            step(mode, factory, clients, seconds, true);
+        }
+    }
+
+    private static void step(String mode, ClientFactory factory, int clients, int seconds, boolean report) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong errors = new AtomicLong();
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        int[] counts = new int[clients];
+        for (int c = 0; c < clients; c++) {
+            long[] mine = new long[1 << 18];
+            latencies.add(mine);
+            int client = c;
+            Client caller = factory.create("JVSB" + String.format("%04d", c));
+            Thread thread = new Thread(() -> {
+                boolean purchase = true;
+                while (running.get()) {
+                    long started = System.nanoTime();
+                    try {
+                        if (!caller.call(purchase)) {
+                            errors.incrementAndGet();
+                        }
+                        purchase = !purchase;
+                        if (counts[client] < mine.length) {
+                            mine[counts[client]] = System.nanoTime() - started;
+                        }
+                        counts[client]++;
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+        }
+        long started = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long wall = System.nanoTime() - started;
+        if (!report) {
+            return;
+        }
+
+        long total = Arrays.stream(counts).asLongStream().sum();
+        long[] all = new long[(int) Math.min(Integer.MAX_VALUE, total)];
+        int n = 0;
+        for (int c = 0; c < clients; c++) {
+            int recorded = Math.min(counts[c], latencies.get(c).length);
+            System.arraycopy(latencies.get(c), 0, all, n, recorded);
+            n += recorded;
+        }
+        all = Arrays.copyOf(all, n);
+        Arrays.sort(all);
+        System.out.printf("%s\t%d\t%.0f\t%.3f\t%.3f\t%d%n", mode, clients, total / (wall / 1e9),
+                n == 0 ? 0 : all[n / 2] / 1e6, n == 0 ? 0 : all[(int) (n * 0.99)] / 1e6, errors.get());
+    }
+}
@@ -0,0 +1,169 @@
+package org.benchmark;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.server.Share;
+import org.server.ShareMarketServerImpl;
+
+// The market engine on its own: each benchmark calls ShareMarketServerImpl
+// directly, with no SOAP, UDP peers or journal. Buyers and shares are picked with
+// a Zipf distribution of exponent skew (0 is uniform), so a few hot keys take most
+// of the calls the way popular shares do. Thread count comes from the run
+// (./gradlew jmh -PjmhThreads=8, or -t), so the same parameters measure both the
+// uncontended path and contention on hot buyers and shares.
+//
+// Every buyer starts with a large holding of one share, its home share, which
+// sellShare draws on, and one unit of SWAP_A or SWAP_B, which swapShares moves
+// back and forth. Setup reserves the capacity and puts the holdings straight in,
+// which is quick and keeps every share's capacity consistent with what buyers
+// hold. Half of each home share is split among its buyers in proportion to how
+// often they are drawn, so hot buyers are not sold out first.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MarketOperationsBenchmark {
+
+    private static final String SHARE_TYPE = "Equity";
+    private static final String SWAP_TYPE = "Bonus";
+    private static final String SWAP_A = "JMHS000001";
+    private static final String SWAP_B = "JMHS000002";
+    private static final int CAPACITY = 1_000_000_000;
+
+    @Param({"100", "10000"})
+    int shares;
+
+    @Param({"1000", "100000"})
+    int buyers;
+
+    @Param({"0", "0.99"})
+    double skew;
+
+    ShareMarketServerImpl market;
+    String[] shareIDs;
+    String[] buyerIDs;
+    ZipfSampler shareSampler;
+    ZipfSampler buyerSampler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        market = new ShareMarketServerImpl("JmhBench", 0);
+        shareIDs = new String[shares];
+        for (int s = 0; s < shares; s++) {
+            shareIDs[s] = String.format("JMHM%06d", s);
+            market.addShare(shareIDs[s], SHARE_TYPE, CAPACITY);
+        }
+        market.addShare(SWAP_A, SWAP_TYPE, CAPACITY);
+        market.addShare(SWAP_B, SWAP_TYPE, CAPACITY);
+        shareSampler = new ZipfSampler(shares, skew);
+        buyerSampler = new ZipfSampler(buyers, skew);
+        double[] homeWeights = new double[shares];
+        for (int b = 0; b < buyers; b++) {
+            homeWeights[b % shares] += buyerSampler.weight(b);
+        }
+        Map<String, Share> equities = market.getShareDatabase().get(SHARE_TYPE);
+        Share swapA = market.getShareDatabase().get(SWAP_TYPE).get(SWAP_A);
+        buyerIDs = new String[buyers];
+        for (int b = 0; b < buyers; b++) {
+            buyerIDs[b] = String.format("JMHB%06d", b);
+            int home = b % shares;
+            int held = Math.max(1, (int) (CAPACITY / 2 * buyerSampler.weight(b) / homeWeights[home]));
+            if (!equities.get(shareIDs[home]).tryReserve(held) || !swapA.tryReserve(1)) {
+                throw new IllegalStateException("Not enough capacity to seed " + buyerIDs[b]);
+            }
+            Map<String, Integer> holdings = market.getBuyerHoldings().computeIfAbsent(buyerIDs[b], id -> new ConcurrentHashMap<>());
+            holdings.put(SHARE_TYPE + "-" + shareIDs[home], held);
+            holdings.put(SWAP_TYPE + "-" + SWAP_A, 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        market.getAuditLog().close();
+    }
+
+    @Benchmark
+    public String purchaseShare() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return market.purchaseShare(buyerIDs[buyerSampler.next(random)], shareIDs[shareSampler.next(random)], SHARE_TYPE, 1);
+    }
+
+    @Benchmark
+    public String sellShare() {
+        int buyer = buyerSampler.next(ThreadLocalRandom.current());
+        return market.sellShare(buyerIDs[buyer], shareIDs[buyer % shares], SHARE_TYPE, 1);
+    }
+
+    @Benchmark
+    public String getShares() {
+        return market.getShares(buyerIDs[buyerSampler.next(ThreadLocalRandom.current())]);
+    }
+
+    @Benchmark
+    public String listShareAvailability() {
+        return market.listShareAvailability(SHARE_TYPE);
+    }
+
+    // Swaps the buyer's unit to the other swap share; a thread that loses a race on
+    // the same buyer gets the cheaper "does not own" answer, as a real client would
+    @Benchmark
+    public String swapShares() {
+        String buyerID = buyerIDs[buyerSampler.next(ThreadLocalRandom.current())];
+        boolean holdsA = market.getBuyerHoldings().get(buyerID).containsKey(SWAP_TYPE + "-" + SWAP_A);
+        return holdsA
+                ? market.swapShares(buyerID, SWAP_A, SWAP_TYPE, SWAP_B, SWAP_TYPE)
+                : market.swapShares(buyerID, SWAP_B, SWAP_TYPE, SWAP_A, SWAP_TYPE);
+    }
+
+    // Draws indexes 0..n-1 with probability proportional to 1 / (index + 1)^skew, by
+    // binary search of the cumulative distribution
+    static final class ZipfSampler {
+        private final int n;
+        private final double[] cumulative;
+
+        ZipfSampler(int n, double skew) {
+            this.n = n;
+            if (skew == 0) {
+                cumulative = null;
+                return;
+            }
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, skew);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        // The probability of drawing index
+        double weight(int index) {
+            if (cumulative == null) {
+                return 1.0 / n;
+            }
+            return index == 0 ? cumulative[0] : cumulative[index] - cumulative[index - 1];
+        }
+
+        int next(ThreadLocalRandom random) {
+            if (cumulative == null) {
+                return random.nextInt(n);
+            }
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(n - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+}
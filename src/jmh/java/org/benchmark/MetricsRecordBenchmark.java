@@ -0,0 +1,40 @@
+package org.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.server.MetricsRegistry;
+
+// What every market operation pays for its latency sample: recording one into a
+// timer held in a field, as ShareMarketServerImpl does, against looking the timer
+// up in the registry first. Run with -t to see the adders under contention.
+// Tracing is off unless the run sets -Dmarket.trace=true.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsRecordBenchmark {
+
+    MetricsRegistry metrics;
+    MetricsRegistry.Timer timer;
+
+    @Setup
+    public void setUp() {
+        metrics = new MetricsRegistry("JmhMetrics");
+        timer = metrics.timer("operation", "purchaseShare");
+    }
+
+    @Benchmark
+    public void recordCached() {
+        timer.record(System.nanoTime(), true);
+    }
+
+    @Benchmark
+    public void recordWithLookup() {
+        metrics.timer("operation", "purchaseShare").record(System.nanoTime(), true);
+    }
+}
@@ -0,0 +1,89 @@
+package org.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import org.server.MarketJournal;
+import org.server.ShareMarketServerImpl;
+
+// Writes a growing number of journaled trades and measures how long a fresh
+// market takes to recover them, once from the log alone and once with a snapshot
+// taken 1000 records before the end. The snapshot column should stay flat as the
+// log grows; the log-only column grows with it.
+//
+// Usage: RecoveryBenchmark [maxRecords] [writerThreads]
+public class RecoveryBenchmark {
+
+    private static final String[] SHARE_TYPES = {"Equity", "Bonus", "Dividend"};
+
+    public static void main(String[] args) throws Exception {
+        int maxRecords = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        // Keep automatic snapshots out of the way; this benchmark takes its own
+        System.setProperty("journal.snapshotEveryRecords", String.valueOf(Long.MAX_VALUE));
+
+        System.out.println("records\twrite ops/s\tfsyncs\tlog-only ms\twith-snapshot ms");
+        for (int records = 10_000; records <= maxRecords; records *= 10) {
+            Path logOnly = Files.createTempDirectory("recovery-log");
+            Path withSnapshot = Files.createTempDirectory("recovery-snap");
+            try {
+                long started = System.nanoTime();
+                MarketJournal journal = fill(logOnly, records, writers, false);
+                double opsPerSecond = records / ((System.nanoTime() - started) / 1e9);
+                fill(withSnapshot, records, writers, true);
+                System.out.printf("%d\t%.0f\t%d\t%d\t%d%n", records, opsPerSecond, journal.getGroupCommits(),
+                        recover(logOnly), recover(withSnapshot));
+            } finally {
+                delete(logOnly);
+                delete(withSnapshot);
+            }
+        }
+    }
+
+    private static MarketJournal fill(Path directory, int records, int writers, boolean snapshotNearEnd) throws Exception {
+        ShareMarketServerImpl market = new ShareMarketServerImpl("Recovery", 0);
+        market.enablePersistence(directory.toString());
+        market.addShare("RECT000001", "Equity", Integer.MAX_VALUE);
+        runTrades(market, records - 1000, writers);
+        if (snapshotNearEnd) {
+            market.getJournal().snapshot();
+        }
+        runTrades(market, 1000, writers);
+        market.getJournal().close();
+        return market.getJournal();
+    }
+
+    private static void runTrades(ShareMarketServerImpl market, int trades, int writers) throws InterruptedException {
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            int share = trades / writers + (t < trades % writers ? 1 : 0);
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < share; i++) {
+                    market.purchaseShare("RECB" + random.nextInt(100_000), "RECT000001", SHARE_TYPES[0], 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static long recover(Path directory) throws IOException {
+        ShareMarketServerImpl market = new ShareMarketServerImpl("Recovery", 0);
+        market.enablePersistence(directory.toString());
+        long millis = market.getJournal().getRecoveryMillis();
+        market.getJournal().close();
+        return millis;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.server.MappedSnapshot;
+import org.server.ShareMarketServerImpl;
+import org.server.SnapshotWriter;
+
+// Writes synthetic snapshots of growing size and measures how long a fresh market
+// takes to start from them: opening the journal (which maps the snapshot and only
+// reads shares), serving the first getShares, and, for comparison, materializing
+// every buyer the way the old eager snapshot loader did.
+//
+// Each size is measured in fresh JVMs, one for the market and one for the eager
+// load, so neither is helped by classes, JIT or mappings left by an earlier
+// size. The OS page cache is not dropped: the snapshot was just written, so
+// every run reads it warm and the times leave out disk reads.
+//
+// Usage: SnapshotStartupBenchmark [maxHoldings] [holdingsPerBuyer]
+public class SnapshotStartupBenchmark {
+
+    private static final String[] SHARE_TYPES = {"Equity", "Bonus", "Dividend"};
+    private static final int SHARES_PER_TYPE = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("startup")) {
+            startup(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("eager")) {
+            System.out.println("RESULT " + eagerLoad(Path.of(args[1]), Integer.parseInt(args[2])));
+            return;
+        }
+        long maxHoldings = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        int perBuyer = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        System.out.println("holdings\tfile MB\twrite ms\tstartup ms\tfirst getShares ms\teager load ms");
+        for (long holdings : new long[] {10_000, 1_000_000, 10_000_000}) {
+            if (holdings > maxHoldings) {
+                break;
+            }
+            Path directory = Files.createTempDirectory("snapshot-startup");
+            try {
+                int buyers = (int) (holdings / perBuyer);
+                long started = System.nanoTime();
+                Path file = write(directory, buyers, perBuyer);
+                long writeMillis = (System.nanoTime() - started) / 1_000_000;
+
+                long[] startup = runChild("startup", directory.toString(), buyers);
+                long eagerMillis = runChild("eager", file.toString(), buyers)[0];
+
+                System.out.printf("%d\t%.1f\t%d\t%.1f\t%.3f\t%d%n", holdings, Files.size(file) / 1e6, writeMillis,
+                        startup[0] / 1e6, startup[1] / 1e6, eagerMillis);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    // Runs one measurement in a new JVM and returns the numbers on its RESULT line
+    private static long[] runChild(String mode, String path, int buyers) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Djournal.snapshotEveryRecords=" + Long.MAX_VALUE,
+                SnapshotStartupBenchmark.class.getName(), mode, path, String.valueOf(buyers))
+                .redirectErrorStream(true).start();
+        long[] result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    String[] fields = line.split(" ");
+                    result = new long[fields.length - 1];
+                    for (int i = 1; i < fields.length; i++) {
+                        result[i - 1] = Long.parseLong(fields[i]);
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException(mode + " run failed with exit code " + process.exitValue());
+        }
+        return result;
+    }
+
+    // Prints {nanos to open the market, nanos for its first getShares}
+    private static void startup(String directory, int buyers) throws Exception {
+        long started = System.nanoTime();
+        ShareMarketServerImpl market = new ShareMarketServerImpl("Startup", 0);
+        market.enablePersistence(directory);
+        long startupNanos = System.nanoTime() - started;
+
+        started = System.nanoTime();
+        String first = market.getShares(buyerID(buyers / 2));
+        long firstNanos = System.nanoTime() - started;
+        if (first.startsWith("No shares")) {
+            throw new IllegalStateException("buyer missing from snapshot");
+        }
+        market.getJournal().close();
+        market.getAuditLog().close();
+        System.out.println("RESULT " + startupNanos + " " + firstNanos);
+    }
+
+    private static Path write(Path directory, int buyers, int perBuyer) throws IOException {
+        Path file = directory.resolve("snapshot-1.dat");
+        try (SnapshotWriter writer = new SnapshotWriter(file)) {
+            for (String shareType : SHARE_TYPES) {
+                for (int s = 0; s < SHARES_PER_TYPE; s++) {
+                    writer.writeShare(shareType, shareID(s), Integer.MAX_VALUE, Integer.MAX_VALUE, "Startup");
+                }
+            }
+            // Fixed-width IDs keep buyers in the ascending order the writer requires
+            Map<String, Integer> holdings = new HashMap<>();
+            for (int b = 0; b < buyers; b++) {
+                holdings.clear();
+                for (int h = 0; h < perBuyer; h++) {
+                    int share = (b + h * 7) % (SHARE_TYPES.length * SHARES_PER_TYPE);
+                    holdings.put(SHARE_TYPES[share / SHARES_PER_TYPE] + "-" + shareID(share % SHARES_PER_TYPE), h + 1);
+                }
+                writer.writeBuyer(buyerID(b), holdings);
+            }
+            writer.finish(1);
+        }
+        return file;
+    }
+
+    private static long eagerLoad(Path file, int buyers) throws IOException {
+        long started = System.nanoTime();
+        MappedSnapshot view = MappedSnapshot.open(file);
+        Map<String, Map<String, Integer>> all = new HashMap<>(buyers * 2);
+        for (int b = 0; b < buyers; b++) {
+            String buyerID = buyerID(b);
+            all.put(buyerID, view.loadHoldings(buyerID));
+        }
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+
+    private static String buyerID(int index) {
+        return String.format("STUB%08d", index);
+    }
+
+    private static String shareID(int index) {
+        return String.format("STUM%06d", index);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.benchmark;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.server.ShareMarketServerImpl;
+import org.server.UDPServerThread;
+
+// Times cross-market swaps with 3, 10 and 50 markets, probing the peers one at a
+// time (market.swap.probe=sequential, the old behaviour) and all at once. Every
+// market runs its UDP server in this process. The share swapped into exists at a
+// single peer, a different one each swap, so a sequential probe walks half the
+// peers on average. Reports swaps/s, mean and p99 latency, and the UDP datagrams
+// the peers received per swap. Markets in different cities are far apart, so each
+// peer sits behind a relay that adds rttMs to every round trip; with rttMs 0 the
+// datagrams go straight to the peers over loopback.
+//
+// Usage: SwapProbeBenchmark [swapsPerRun] [marketCounts] [rttMs]
+//   e.g. SwapProbeBenchmark 500 3,10,50 2
+public class SwapProbeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int swaps = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int[] marketCounts = Arrays.stream((args.length > 1 ? args[1] : "3,10,50").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long rttMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+        System.setProperty("market.udp.workers", "2");
+        ScheduledExecutorService delays = Executors.newScheduledThreadPool(4, r -> {
+            Thread t = new Thread(r, "swap-bench-delay");
+            t.setDaemon(true);
+            return t;
+        });
+
+        System.out.println("rtt=" + rttMillis + " ms");
+        System.out.println("markets\tprobe\tswaps/s\tmean ms\tp99 ms\tdatagrams/swap\tfailed");
+        int port = 18500;
+        for (int markets : marketCounts) {
+            List<UDPServerThread> servers = new ArrayList<>();
+            List<DatagramChannel> relays = new ArrayList<>();
+            // Peers listen on port + p; the origin talks to port + markets + p
+            for (int p = 1; p < markets; p++) {
+                ShareMarketServerImpl peer = new ShareMarketServerImpl("SwapPeer" + p, 0);
+                peer.addShare(String.format("SPBN%06d", p), "Bonus", Integer.MAX_VALUE);
+                UDPServerThread server = new UDPServerThread(port + p, peer, peer.getShareDatabase());
+                server.setDaemon(true);
+                server.start();
+                servers.add(server);
+                if (rttMillis > 0) {
+                    relays.addAll(relay(port + markets + p, port + p, rttMillis, delays));
+                }
+            }
+            Thread.sleep(200);
+            int originPortBase = rttMillis > 0 ? port + markets : port;
+            try {
+                for (String probe : new String[]{"sequential", "parallel"}) {
+                    System.setProperty("market.swap.probe", probe);
+                    run(markets, probe, originPortBase, swaps, servers);
+                }
+            } finally {
+                for (UDPServerThread server : servers) {
+                    server.shutdown();
+                }
+                for (DatagramChannel relay : relays) {
+                    relay.close();
+                }
+            }
+            port += 2 * markets;
+        }
+    }
+
+    // Forwards datagrams between listenPort and the server on serverPort, holding
+    // each one for half the round trip in each direction
+    private static List<DatagramChannel> relay(int listenPort, int serverPort, long rttMillis,
+                                               ScheduledExecutorService delays) throws Exception {
+        DatagramChannel front = DatagramChannel.open().bind(new InetSocketAddress(listenPort));
+        DatagramChannel back = DatagramChannel.open().connect(new InetSocketAddress("localhost", serverPort));
+        long halfNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis) / 2;
+        AtomicReference<SocketAddress> client = new AtomicReference<>();
+        Thread inbound = new Thread(() -> forward(() -> {
+            ByteBuffer datagram = ByteBuffer.allocate(65507);
+            client.set(front.receive(datagram));
+            datagram.flip();
+            delays.schedule(() -> send(() -> back.write(datagram)), halfNanos, TimeUnit.NANOSECONDS);
+        }), "swap-bench-relay-in-" + listenPort);
+        Thread outbound = new Thread(() -> forward(() -> {
+            ByteBuffer datagram = ByteBuffer.allocate(65507);
+            back.receive(datagram);
+            datagram.flip();
+            delays.schedule(() -> send(() -> front.send(datagram, client.get())), halfNanos, TimeUnit.NANOSECONDS);
+        }), "swap-bench-relay-out-" + listenPort);
+        for (Thread thread : new Thread[]{inbound, outbound}) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return List.of(front, back);
+    }
+
+    private interface IoStep {
+        void run() throws Exception;
+    }
+
+    private static void forward(IoStep step) {
+        try {
+            while (true) {
+                step.run();
+            }
+        } catch (Exception e) {
+            // Closed at the end of the run
+        }
+    }
+
+    private static void send(IoStep step) {
+        try {
+            step.run();
+        } catch (Exception e) {
+            // A relay closed with datagrams still held back
+        }
+    }
+
+    private static void run(int markets, String probe, int port, int swaps, List<UDPServerThread> servers) {
+        ShareMarketServerImpl origin = new ShareMarketServerImpl("SwapOrigin", 0);
+        origin.addShare("SPBO000001", "Equity", Integer.MAX_VALUE);
+        for (int p = 1; p < markets; p++) {
+            origin.addRemoteServer("SwapPeer" + p, port + p);
+        }
+        // One untimed swap per peer opens the channels and warms the code paths
+        for (int p = 1; p < markets; p++) {
+            swap(origin, "SPBW" + probe + p, String.format("SPBN%06d", p));
+        }
+
+        long receivedBefore = received(servers);
+        long[] latencies = new long[swaps];
+        int failed = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < swaps; i++) {
+            String target = String.format("SPBN%06d", 1 + i % (markets - 1));
+            long swapStarted = System.nanoTime();
+            if (!swap(origin, "SPBB" + probe + i, target)) {
+                failed++;
+            }
+            latencies[i] = System.nanoTime() - swapStarted;
+        }
+        long wall = System.nanoTime() - started;
+        long datagrams = received(servers) - receivedBefore;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d\t%s\t%.0f\t%.3f\t%.3f\t%.1f\t%d%n", markets, probe, swaps / (wall / 1e9),
+                Arrays.stream(latencies).average().orElse(0) / 1e6, latencies[(int) (swaps * 0.99)] / 1e6,
+                (double) datagrams / swaps, failed);
+    }
+
+    // Buys one share at the origin, which is local and cheap next to the swap, and swaps it
+    private static boolean swap(ShareMarketServerImpl origin, String buyerID, String target) {
+        origin.purchaseShare(buyerID, "SPBO000001", "Equity", 1);
+        return origin.swapShares(buyerID, "SPBO000001", "Equity", target, "Bonus").startsWith("Successfully");
+    }
+
+    private static long received(List<UDPServerThread> servers) {
+        long total = 0;
+        for (UDPServerThread server : servers) {
+            total += server.getReceivedCount();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,81 @@
+package org.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import org.server.ShareMarketServerImpl;
+
+// Drives purchase/sell/getShares directly against one ShareMarketServerImpl with
+// an increasing number of threads and prints operations per second for each run.
+//
+// Usage: ThroughputBenchmark [shares] [buyers] [secondsPerRun] [maxThreads]
+public class ThroughputBenchmark {
+
+    private static final String[] SHARE_TYPES = {"Equity", "Bonus", "Dividend"};
+
+    public static void main(String[] args) throws Exception {
+        int shares = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int buyers = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        System.out.println("shares=" + shares + " buyers=" + buyers + " seconds=" + seconds);
+        System.out.println("threads\tops/s\tscaling");
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double opsPerSecond = run(threads, shares, buyers, seconds);
+            if (threads == 1) {
+                baseline = opsPerSecond;
+            }
+            System.out.printf("%d\t%.0f\t%.2fx%n", threads, opsPerSecond, opsPerSecond / baseline);
+        }
+    }
+
+    private static double run(int threads, int shares, int buyers, int seconds) throws InterruptedException {
+        ShareMarketServerImpl market = new ShareMarketServerImpl("Bench", 0);
+        String[] shareIDs = new String[shares];
+        for (int i = 0; i < shares; i++) {
+            shareIDs[i] = String.format("BENT%06d", i);
+            market.addShare(shareIDs[i], SHARE_TYPES[i % SHARE_TYPES.length], Integer.MAX_VALUE / 2);
+        }
+
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        int share = random.nextInt(shares);
+                        String buyerID = "BENB" + random.nextInt(buyers);
+                        String shareType = SHARE_TYPES[share % SHARE_TYPES.length];
+                        int op = random.nextInt(10);
+                        if (op < 5) {
+                            market.purchaseShare(buyerID, shareIDs[share], shareType, 1);
+                        } else if (op < 9) {
+                            market.sellShare(buyerID, shareIDs[share], shareType, 1);
+                        } else {
+                            market.getShares(buyerID);
+                        }
+                        operations.increment();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            worker.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - began) / 1e9;
+        return operations.sum() / elapsedSeconds;
+    }
+}
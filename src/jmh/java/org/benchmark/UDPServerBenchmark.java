@@ -0,0 +1,125 @@
+package org.benchmark;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.server.PeerMessage;
+import org.server.ShareMarketServerImpl;
+import org.server.UDPServerThread;
+
+// Drives a market's UDP server with closed-loop peer clients and reports
+// requests/s and latency for each worker count. Workers 0 handles one datagram at
+// a time on the receiving thread, which is how the old UDPServerThread loop
+// behaved. One request in four is a journaled EXECUTE_SWAP, so the inline mode
+// waits for every fsync in turn while workers let them share group commits.
+// Requests are sent in the binary format unless -Dmarket.udp.protocol=text.
+//
+// Usage: UDPServerBenchmark [clients] [secondsPerRun] [workerCounts]
+//   e.g. UDPServerBenchmark 32 5 0,8,32
+public class UDPServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int[] workerCounts = Arrays.stream((args.length > 2 ? args[2] : "0,8,32").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        System.setProperty("journal.snapshotEveryRecords", String.valueOf(Long.MAX_VALUE));
+
+        boolean binary = !"text".equalsIgnoreCase(System.getProperty("market.udp.protocol"));
+        System.out.println("protocol\tworkers\tclients\trequests/s\tp50 ms\tp99 ms\ttimeouts");
+        int port = 18400;
+        for (int workers : workerCounts) {
+            System.setProperty("market.udp.workers", String.valueOf(workers));
+            Path directory = Files.createTempDirectory("udp-bench");
+            ShareMarketServerImpl market = new ShareMarketServerImpl("UdpBench", 0);
+            market.enablePersistence(directory.toString());
+            market.addShare("UDBM000001", "Bonus", Integer.MAX_VALUE);
+            UDPServerThread server = new UDPServerThread(port, market, market.getShareDatabase());
+            server.setDaemon(true);
+            server.start();
+            Thread.sleep(200);
+            try {
+                run(binary, workers, port, clients, seconds);
+            } finally {
+                server.shutdown();
+                market.getJournal().close();
+                delete(directory);
+            }
+            port++;
+        }
+    }
+
+    private static void run(boolean binary, int workers, int port, int clients, int seconds) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong timeouts = new AtomicLong();
+        long[][] latencies = new long[clients][1 << 18];
+        int[] counts = new int[clients];
+        Thread[] threads = new Thread[clients];
+        InetAddress localhost = InetAddress.getByName("localhost");
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                PeerMessage check = PeerMessage.checkSwapAvailability("UDBM000001", "Bonus", 1);
+                PeerMessage execute = PeerMessage.executeSwap("UDBB" + client, "OLD", "Equity", "UDBM000001", "Bonus", 1);
+                ByteBuffer send = ByteBuffer.allocate(512);
+                try (DatagramSocket socket = new DatagramSocket()) {
+                    socket.setSoTimeout(2000);
+                    byte[] receive = new byte[4096];
+                    for (int i = 0; running.get(); i++) {
+                        send.clear();
+                        (i % 4 == 3 ? execute : check).encode(send, binary);
+                        long started = System.nanoTime();
+                        socket.send(new DatagramPacket(send.array(), send.position(), localhost, port));
+                        try {
+                            socket.receive(new DatagramPacket(receive, receive.length));
+                        } catch (SocketTimeoutException e) {
+                            timeouts.incrementAndGet();
+                            continue;
+                        }
+                        if (counts[client] < latencies[client].length) {
+                            latencies[client][counts[client]++] = System.nanoTime() - started;
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Client " + client + " failed: " + e);
+                }
+            });
+        }
+        long started = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long wall = System.nanoTime() - started;
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int n = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, n, counts[c]);
+            n += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.printf("%s\t%d\t%d\t%.0f\t%.2f\t%.2f\t%d%n", binary ? "binary" : "text", workers, clients, total / (wall / 1e9),
+                total == 0 ? 0 : all[total / 2] / 1e6, total == 0 ? 0 : all[(int) (total * 0.99)] / 1e6, timeouts.get());
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.audit;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Request threads push records onto a bounded queue and return immediately; one
+// writer thread drains the queue in batches into a file it keeps open. When the
+// queue is full the record is dropped and counted rather than blocking a trade.
+//
+// Loggers obtained through forFile are shared per path and read their settings
+// from system properties:
+//   audit.queueCapacity    (default 8192)
+//   audit.batchSize        (default 256)
+//   audit.flushIntervalMs  (default 200)
+//   audit.flush            EVERY_BATCH | INTERVAL   (default EVERY_BATCH)
+//   audit.fsync            NEVER | EVERY_BATCH | INTERVAL   (default NEVER)
+public class AuditLogger implements Closeable {
+
+    public enum FlushPolicy { EVERY_BATCH, INTERVAL }
+
+    public enum FsyncPolicy { NEVER, EVERY_BATCH, INTERVAL }
+
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final Map<String, AuditLogger> OPEN_LOGGERS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (AuditLogger logger : OPEN_LOGGERS.values()) {
+                logger.close();
+            }
+        }, "audit-shutdown"));
+    }
+
+    private final String path;
+    private final String outcomeLabel;
+    private final BlockingQueue<AuditRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final FlushPolicy flushPolicy;
+    private final FsyncPolicy fsyncPolicy;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Writer thread state
+    private long reportedDrops;
+    private long lastFlushMillis;
+    private long lastFsyncMillis;
+    private long cachedSecond = -1;
+    private String cachedTimestamp;
+
+    public AuditLogger(String path, String outcomeLabel, int queueCapacity, int batchSize,
+                       long flushIntervalMillis, FlushPolicy flushPolicy, FsyncPolicy fsyncPolicy) {
+        this.path = path;
+        this.outcomeLabel = outcomeLabel;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushPolicy = flushPolicy;
+        this.fsyncPolicy = fsyncPolicy;
+        this.writerThread = new Thread(this::drainLoop, "audit-writer-" + new File(path).getName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    // Returns the shared logger for path, starting it on first use. outcomeLabel
+    // names the last column of each line, e.g. "Status" or "Response".
+    public static AuditLogger forFile(String path, String outcomeLabel) {
+        return OPEN_LOGGERS.computeIfAbsent(path, p -> new AuditLogger(p, outcomeLabel,
+                Integer.getInteger("audit.queueCapacity", 8192),
+                Integer.getInteger("audit.batchSize", 256),
+                Long.getLong("audit.flushIntervalMs", 200L),
+                FlushPolicy.valueOf(System.getProperty("audit.flush", "EVERY_BATCH")),
+                FsyncPolicy.valueOf(System.getProperty("audit.fsync", "NEVER"))));
+    }
+
+    // Never blocks. Returns false if the record was dropped because the queue is full.
+    public boolean log(String action, String params, String outcome) {
+        if (!running || !queue.offer(new AuditRecord(System.currentTimeMillis(), action, params, outcome))) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        OPEN_LOGGERS.remove(path, this);
+        // The writer notices within one poll interval; interrupting it could close
+        // the file channel in the middle of a force()
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        File file = new File(path);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        try (FileOutputStream out = new FileOutputStream(file, true);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            while (running || !queue.isEmpty()) {
+                try {
+                    AuditRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, batchSize - 1);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                    queue.drainTo(batch);
+                }
+                writeBatch(writer, batch);
+                syncIfDue(writer, out, !batch.isEmpty());
+                batch.clear();
+            }
+            writer.flush();
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                out.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            System.err.println("Audit log " + path + " stopped: " + e.getMessage());
+            running = false;
+        }
+    }
+
+    private void writeBatch(BufferedWriter writer, List<AuditRecord> batch) throws IOException {
+        long drops = dropped.sum();
+        if (drops != reportedDrops) {
+            writer.write("[" + timestamp(System.currentTimeMillis()) + "] AUDIT | Dropped " +
+                    (drops - reportedDrops) + " records (queue full)\n");
+            reportedDrops = drops;
+        }
+        for (AuditRecord record : batch) {
+            writer.write('[');
+            writer.write(timestamp(record.getTimestampMillis()));
+            writer.write("] ");
+            writer.write(record.getAction());
+            if (record.getParams() != null) {
+                writer.write(" | Params: ");
+                writer.write(record.getParams());
+            }
+            writer.write(" | ");
+            writer.write(outcomeLabel);
+            writer.write(": ");
+            writer.write(String.valueOf(record.getOutcome()));
+            writer.write('\n');
+        }
+        written.add(batch.size());
+    }
+
+    private void syncIfDue(BufferedWriter writer, FileOutputStream out, boolean wroteBatch) throws IOException {
+        long now = System.currentTimeMillis();
+        boolean intervalElapsed = now - lastFlushMillis >= flushIntervalMillis;
+        if ((flushPolicy == FlushPolicy.EVERY_BATCH && wroteBatch) || intervalElapsed) {
+            writer.flush();
+            lastFlushMillis = now;
+        }
+        if ((fsyncPolicy == FsyncPolicy.EVERY_BATCH && wroteBatch)
+                || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsyncMillis >= flushIntervalMillis)) {
+            writer.flush();
+            out.getChannel().force(false);
+            lastFsyncMillis = now;
+        }
+    }
+
+    // Lines only carry second resolution, so the formatted value is reused per second
+    private String timestamp(long millis) {
+        long second = millis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = TIMESTAMP.format(Instant.ofEpochMilli(millis));
+        }
+        return cachedTimestamp;
+    }
+}
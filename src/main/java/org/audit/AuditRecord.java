@@ -0,0 +1,33 @@
+package org.audit;
+
+// One audit entry as pushed by a request thread. Formatting into a log line is
+// left to the writer thread.
+public class AuditRecord {
+    private final long timestampMillis;
+    private final String action;
+    private final String params;
+    private final String outcome;
+
+    public AuditRecord(long timestampMillis, String action, String params, String outcome) {
+        this.timestampMillis = timestampMillis;
+        this.action = action;
+        this.params = params;
+        this.outcome = outcome;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getParams() {
+        return params;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+}
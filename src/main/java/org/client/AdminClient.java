@@ -1,16 +1,8 @@
 package org.client;
 
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.Scanner;
-import java.util.HashMap;
-import java.util.Map;
-import javax.xml.namespace.QName;
-import javax.xml.ws.Service;
-import java.net.URL;
+import org.audit.AuditLogger;
 import org.server.ShareMarketServer;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 public class AdminClient {
 
@@ -19,12 +11,6 @@ public class AdminClient {
         System.out.print("Enter your Admin ID (e.g., NYKAXXXX, LONAXXXX, TOKAXXXX): ");
         String adminID = scanner.next();
 
-        // Define market URLs
-        Map<String, String> marketUrls = new HashMap<>();
-        marketUrls.put("NewYork", "http://localhost:8080/ShareMarketService?wsdl");
-        marketUrls.put("London", "http://localhost:8081/ShareMarketService?wsdl");
-        marketUrls.put("Tokyo", "http://localhost:8082/ShareMarketService?wsdl");
-
         // Determine correct server location based on admin ID
         String cityCode = adminID.substring(0, 3);
         String serverName = getFullCityName(cityCode);
@@ -34,16 +20,12 @@ public class AdminClient {
             return;
         }
 
-        // Dynamically create the web service client
-        String wsdlUrl = marketUrls.get(serverName);
-
         try {
-            URL url = new URL(wsdlUrl);
-            QName qname = new QName("http://server.org/", "ShareMarketServerImplService");
-            Service service = Service.create(url, qname);
-            ShareMarketServer port = service.getPort(ShareMarketServer.class);
+            // Port from the bundled WSDL, addressed at the admin's market
+            long connectStarted = System.nanoTime();
+            ShareMarketServer port = MarketPorts.forMarket(serverName);
 
-            System.out.println("Connected to " + serverName + " Server.");
+            System.out.println("Connected to " + serverName + " Server in " + (System.nanoTime() - connectStarted) / 1_000_000 + " ms.");
 
             while (true) {
                 System.out.println("\nAdmin Menu (" + serverName + ")");
@@ -100,30 +82,8 @@ public class AdminClient {
                     case 3:
                         System.out.print("Enter Share Type to list availability: ");
                         shareType = scanner.next();
-                        //call listshareAvailability in local and other ports
-
-                        StringBuilder availabilityInfo = new StringBuilder();
-                        for (Map.Entry<String, String> entry : marketUrls.entrySet()) {
-                            String marketName = entry.getKey();
-                            String wsdlURL = entry.getValue();
-
-                            try {
-                                // Create a dynamic client for each market
-                                URL url_market = new URL(wsdlURL);
-                                QName qname_market = new QName("http://server.org/", "ShareMarketServerImplService");
-                                Service service_market = Service.create(url_market, qname_market);
-                                ShareMarketServer marketPort = service_market.getPort(ShareMarketServer.class);
-
-                                String marketAvailability = marketPort.listShareAvailability(shareType);
-                                availabilityInfo.append("\n---").append(marketName).append(" Market Availability---\n")
-                                        .append(marketAvailability);
-                            } catch (Exception e) {
-                                availabilityInfo.append("\n---").append(marketName).append(" Market Availability---\n")
-                                        .append("Error retrieving availability: ").append(e.getMessage());
-                            }
-                        }
-
-                        response = availabilityInfo.toString();
+                        // The local server queries the other markets in parallel over UDP
+                        response = port.listGlobalShareAvailability(shareType);
                         logAction(adminID, "listShareAvailability", response);
                         System.out.println(response);
                         break;
@@ -183,13 +143,6 @@ public class AdminClient {
     }
 
     private static void logAction(String userID, String action, String response) {
-        try {
-            FileWriter writer = new FileWriter("C:\\Users\\barat\\Desktop\\COMP 6231\\Assignments\\3\\DSD A3\\ShareMarket\\src\\main\\java\\org\\logs\\client\\Admin_" + userID + ".log", true);
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            writer.write("[" + timestamp + "] " + action + " → " + response + "\n");
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        AuditLogger.forFile("logs/Admin_" + userID + ".log", "Response").log(action, null, response);
     }
 }
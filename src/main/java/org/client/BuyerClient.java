@@ -1,16 +1,9 @@
 package org.client;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Scanner;
-import javax.xml.namespace.QName;
-import javax.xml.ws.Service;
-import java.net.URL;
+import org.audit.AuditLogger;
 import org.server.ShareMarketServer;
+import org.server.TraceHandler;
 
 public class BuyerClient {
 
@@ -20,12 +13,6 @@ public class BuyerClient {
         System.out.print("Enter your Buyer ID (e.g., NYKBXXXX, LONBXXXX, TOKBXXXX): ");
         String buyerID = scanner.next();
 
-        // Define market URLs
-        Map<String, String> marketUrls = new HashMap<>();
-        marketUrls.put("NewYork", "http://localhost:8080/ShareMarketService?wsdl");
-        marketUrls.put("London", "http://localhost:8081/ShareMarketService?wsdl");
-        marketUrls.put("Tokyo", "http://localhost:8082/ShareMarketService?wsdl");
-
         // Determine correct server location based on buyer ID
         String serverName = ClientMap.getLocation(buyerID);
         if (serverName == null) {
@@ -33,15 +20,11 @@ public class BuyerClient {
             return;
         }
 
-        //Dynamically create the port
-        String wsdlUrl = marketUrls.get(serverName);
-
-        URL url = new URL(wsdlUrl);
-        QName qname = new QName("http://server.org/", "ShareMarketServerImplService");
-        Service service = Service.create(url, qname);
-        ShareMarketServer port = service.getPort(ShareMarketServer.class);
+        // Port from the bundled WSDL, addressed at the buyer's market
+        long connectStarted = System.nanoTime();
+        ShareMarketServer port = MarketPorts.forMarket(serverName);
 
-        System.out.println("Connected to " + serverName + " Server.");
+        System.out.println("Connected to " + serverName + " Server in " + (System.nanoTime() - connectStarted) / 1_000_000 + " ms.");
 
         while (true) {
             System.out.println("\nBuyer Menu (" + serverName + ")");
@@ -95,28 +78,8 @@ public class BuyerClient {
 
                 case 3:
                     System.out.println("--- Share Holdings Across Markets ---");
-                    StringBuilder allShares = new StringBuilder();
-                    for (Map.Entry<String, String> entry : marketUrls.entrySet()) {
-                        String marketName = entry.getKey();
-                        String wsdlURL = entry.getValue();
-                        try {
-                            URL url_market = new URL(wsdlURL);
-                            QName qname_market = new QName("http://server.org/", "ShareMarketServerImplService");
-                            Service service_market = Service.create(url_market, qname_market);
-                            ShareMarketServer marketPort = service_market.getPort(ShareMarketServer.class);
-
-                            String marketShares = marketPort.getShares(buyerID);
-                            allShares.append("---Your ").append(marketName).append(" Market Shares---\n");
-                            if (marketShares.trim().isEmpty() || marketShares.contains("No shares")) {
-                                allShares.append("No shares found.\n");
-                            } else {
-                                allShares.append(marketShares).append("\n");
-                            }
-                        } catch (Exception e) {
-                            allShares.append("Error retrieving shares from ").append(marketName).append(" market.\n");
-                        }
-                    }
-                    System.out.println(allShares.toString());
+                    // The home market gathers the other markets' holdings itself
+                    System.out.println(port.getGlobalShares(buyerID));
                     break;
 
                 case 4:
@@ -162,6 +125,9 @@ public class BuyerClient {
                     response = port.swapShares(buyerID, oldShareID, oldShareType, newShareID, newShareType);
                     logAction(buyerID, "swapShares", response);
                     System.out.println(response);
+                    if (MarketPorts.TRACING) {
+                        System.out.println("Trace ID: " + TraceHandler.lastId());
+                    }
                     break;
 
                 case 7:
@@ -176,13 +142,6 @@ public class BuyerClient {
     }
     //Logging Action
     private static void logAction(String buyerID, String methodName, String response) {
-        try {
-            FileWriter writer = new FileWriter("logs/Buyer_" + buyerID + "_Client.log", true);
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            writer.write("[" + timestamp + "] " + methodName + " | Response: " + response + "\n");
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        AuditLogger.forFile("logs/Buyer_" + buyerID + "_Client.log", "Response").log(methodName, null, response);
     }
 }
@@ -21,4 +21,14 @@ public class ClientMap {
         String loc = userID.substring(0, 3); // Extract first 3 letters (NYK, LON, TOK)
         return SERVER_NAME_MAP.getOrDefault(loc, null); // Convert to full name
     }
+
+    // The three-letter code IDs of a location start with (NYK for NewYork), or null
+    public static String getCode(String location) {
+        for (Map.Entry<String, String> entry : SERVER_NAME_MAP.entrySet()) {
+            if (entry.getValue().equals(location)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
 }
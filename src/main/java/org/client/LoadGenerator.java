@@ -0,0 +1,325 @@
+package org.client;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.server.LatencyHistogram;
+import org.server.ShareMarketServer;
+
+// Puts a repeatable load on the markets without anyone at a menu. Simulated buyers
+// are spread over the markets and each operation goes to the buyer's home market,
+// as BuyerClient would send it. Everything is set with system properties:
+//   load.markets        markets to drive (NewYork,London,Tokyo)
+//   load.buyers         simulated buyers across all markets (3000)
+//   load.sharesPerMarket shares added to each market before the run (20)
+//   load.mix            operation weights, e.g. the default
+//                       purchase=35,sell=25,swap=5,getShares=20,globalShares=5,purchaseRemote=5,sellRemote=5
+//   load.mode           closed: load.threads callers back to back, each waiting
+//                       load.thinkMs between calls
+//                       open: calls start at load.rate per second whether or not
+//                       earlier ones have finished, run by up to load.threads threads
+//   load.rate           open-loop arrivals per second (500)
+//   load.threads        callers, or open-loop worker threads (64)
+//   load.thinkMs        closed-loop pause between a caller's calls (0)
+//   load.warmupSec      seconds run before measuring (5)
+//   load.durationSec    seconds measured (30)
+//   load.report         file to append one CSV line per operation to, so runs of
+//                       different releases can be compared
+// Open-loop latency counts from when a call was due, not when a thread got to it,
+// so a market that falls behind shows its queueing delay. A call that returns a
+// refusal (not enough shares, nothing to swap) counts as rejected; one that
+// throws counts as an error.
+public class LoadGenerator {
+
+    private static final String SHARE_TYPE = "Equity";
+
+    enum Operation {
+        PURCHASE("purchase"), SELL("sell"), SWAP("swap"), GET_SHARES("getShares"), GLOBAL_SHARES("globalShares"),
+        PURCHASE_REMOTE("purchaseRemote"), SELL_REMOTE("sellRemote");
+
+        final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+    }
+
+    interface PortFactory {
+        ShareMarketServer create(String market) throws IOException;
+    }
+
+    private static class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private final String[] markets;
+    private final String[] codes;
+    private final int buyersPerMarket;
+    private final int sharesPerMarket;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final PortFactory portFactory;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final ThreadLocal<Map<String, ShareMarketServer>> ports = ThreadLocal.withInitial(HashMap::new);
+    private volatile long measureFrom;
+
+    LoadGenerator(String[] markets, int buyers, int sharesPerMarket, String mix, PortFactory portFactory) {
+        this.markets = markets;
+        this.codes = new String[markets.length];
+        for (int i = 0; i < markets.length; i++) {
+            codes[i] = ClientMap.getCode(markets[i]);
+            if (codes[i] == null) {
+                throw new IllegalArgumentException("Unknown market " + markets[i]);
+            }
+        }
+        this.buyersPerMarket = Math.max(1, Math.min(9999, buyers / markets.length));
+        this.sharesPerMarket = sharesPerMarket;
+        this.portFactory = portFactory;
+
+        List<Operation> chosen = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int sum = 0;
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            Operation operation = null;
+            for (Operation candidate : Operation.values()) {
+                if (candidate.key.equals(pair[0])) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null || pair.length != 2) {
+                throw new IllegalArgumentException("Bad load.mix entry " + entry);
+            }
+            int weight = Integer.parseInt(pair[1]);
+            if (weight > 0) {
+                sum += weight;
+                chosen.add(operation);
+                weights.add(sum);
+                stats.put(operation, new Stats());
+            }
+        }
+        if (chosen.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no operation with a weight above 0");
+        }
+        this.operations = chosen.toArray(new Operation[0]);
+        this.cumulativeWeights = weights.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] markets = System.getProperty("load.markets", "NewYork,London,Tokyo").split(",");
+        int buyers = Integer.getInteger("load.buyers", 3000);
+        int sharesPerMarket = Integer.getInteger("load.sharesPerMarket", 20);
+        String mix = System.getProperty("load.mix",
+                "purchase=35,sell=25,swap=5,getShares=20,globalShares=5,purchaseRemote=5,sellRemote=5");
+        String mode = System.getProperty("load.mode", "closed");
+        int rate = Integer.getInteger("load.rate", 500);
+        int threads = Integer.getInteger("load.threads", 64);
+        long thinkMillis = Long.getLong("load.thinkMs", 0);
+        int warmupSeconds = Integer.getInteger("load.warmupSec", 5);
+        int durationSeconds = Integer.getInteger("load.durationSec", 30);
+        String report = System.getProperty("load.report");
+
+        LoadGenerator generator = new LoadGenerator(markets, buyers, sharesPerMarket, mix, MarketPorts::newPort);
+        generator.addShares();
+        System.out.println("Load: " + mode + " loop, " + (mode.equals("open") ? rate + " calls/s on " : "")
+                + threads + " threads, " + generator.buyersPerMarket * markets.length + " buyers, "
+                + warmupSeconds + " s warm-up, " + durationSeconds + " s measured");
+        switch (mode) {
+            case "closed":
+                generator.runClosedLoop(threads, thinkMillis, warmupSeconds, durationSeconds);
+                break;
+            case "open":
+                generator.runOpenLoop(rate, threads, warmupSeconds, durationSeconds);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown load.mode " + mode);
+        }
+        generator.printReport(durationSeconds);
+        if (report != null) {
+            generator.appendReport(report, mode, durationSeconds);
+        }
+        System.exit(0);
+    }
+
+    // Adds the shares the buyers trade in; ones left over from an earlier run are kept
+    void addShares() throws IOException {
+        for (int m = 0; m < markets.length; m++) {
+            ShareMarketServer port = port(markets[m]);
+            for (int s = 1; s <= sharesPerMarket; s++) {
+                port.addShare(shareID(m, s), SHARE_TYPE, 1_000_000);
+            }
+        }
+    }
+
+    void runClosedLoop(int threads, long thinkMillis, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long started = System.nanoTime();
+        measureFrom = started + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread caller = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    call(System.nanoTime());
+                    if (thinkMillis > 0) {
+                        try {
+                            Thread.sleep(thinkMillis);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "load-caller-" + t);
+            caller.setDaemon(true);
+            callers.add(caller);
+            caller.start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+    }
+
+    void runOpenLoop(int rate, int threads, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "load-worker-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long started = System.nanoTime();
+        measureFrom = started + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long i = 0; ; i++) {
+            long due = started + i * intervalNanos;
+            if (due >= end) {
+                break;
+            }
+            // parkNanos rather than sleep, which rounds to whole milliseconds before Java 21
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            workers.execute(() -> call(due));
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.err.println("Calls still outstanding after 60 s; they are left out");
+            workers.shutdownNow();
+        }
+    }
+
+    // Runs one randomly chosen operation and records its latency from due
+    private void call(long due) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int o = 0;
+        while (cumulativeWeights[o] <= draw) {
+            o++;
+        }
+        Operation operation = operations[o];
+        Stats operationStats = stats.get(operation);
+        boolean ok;
+        try {
+            ok = execute(operation, random);
+        } catch (Exception e) {
+            if (due >= measureFrom) {
+                operationStats.errors.increment();
+            }
+            return;
+        }
+        long finished = System.nanoTime();
+        if (due >= measureFrom) {
+            operationStats.latency.record(finished - due);
+            (ok ? operationStats.ok : operationStats.rejected).increment();
+        }
+    }
+
+    private boolean execute(Operation operation, ThreadLocalRandom random) throws IOException {
+        int home = random.nextInt(markets.length);
+        int other = markets.length == 1 ? home : (home + 1 + random.nextInt(markets.length - 1)) % markets.length;
+        String buyerID = codes[home] + "B" + String.format("%04d", 1 + random.nextInt(buyersPerMarket));
+        String localShare = shareID(home, 1 + random.nextInt(sharesPerMarket));
+        String otherShare = shareID(other, 1 + random.nextInt(sharesPerMarket));
+        ShareMarketServer port = port(markets[home]);
+        switch (operation) {
+            case PURCHASE:
+                return port.purchaseShare(buyerID, localShare, SHARE_TYPE, 1 + random.nextInt(5)).contains("successfully");
+            case SELL:
+                return port.sellShare(buyerID, localShare, SHARE_TYPE, 1).contains("successfully");
+            case SWAP:
+                String swapped = port.swapShares(buyerID, localShare, SHARE_TYPE, otherShare, SHARE_TYPE);
+                return swapped.startsWith("Successfully") || swapped.startsWith("SUCCESS");
+            case GET_SHARES:
+                port.getShares(buyerID);
+                return true;
+            case GLOBAL_SHARES:
+                return !port.getGlobalShares(buyerID).contains("Partial result");
+            case PURCHASE_REMOTE:
+                return port.purchaseRemoteShare(buyerID, otherShare, SHARE_TYPE, 1, markets[other]).contains("successfully");
+            case SELL_REMOTE:
+                return port.sellRemoteShare(buyerID, otherShare, SHARE_TYPE, 1, markets[other]).contains("successfully");
+            default:
+                throw new IllegalStateException("Unhandled operation " + operation);
+        }
+    }
+
+    // Ports are not thread-safe, so every thread has its own
+    private ShareMarketServer port(String market) throws IOException {
+        Map<String, ShareMarketServer> mine = ports.get();
+        ShareMarketServer port = mine.get(market);
+        if (port == null) {
+            port = portFactory.create(market);
+            mine.put(market, port);
+        }
+        return port;
+    }
+
+    private String shareID(int market, int share) {
+        return codes[market] + "L" + String.format("%06d", share);
+    }
+
+    void printReport(int durationSeconds) {
+        System.out.println("operation\tcalls\tok\trejected\terrors\tcalls/s\tmean ms\tp50 ms\tp90 ms\tp99 ms\tp99.9 ms\tmax ms");
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            LatencyHistogram h = s.latency;
+            System.out.printf("%s\t%d\t%d\t%d\t%d\t%.1f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f%n", entry.getKey().key,
+                    h.getCount() + s.errors.sum(), s.ok.sum(), s.rejected.sum(), s.errors.sum(),
+                    h.getCount() / (double) durationSeconds, h.getMean() / 1e6,
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+        }
+    }
+
+    // timestamp,mode,operation,calls,ok,rejected,errors,calls/s,p50 ms,p99 ms,p99.9 ms,max ms
+    void appendReport(String file, String mode, int durationSeconds) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            String timestamp = Instant.now().toString();
+            for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+                Stats s = entry.getValue();
+                LatencyHistogram h = s.latency;
+                out.printf("%s,%s,%s,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f%n", timestamp, mode, entry.getKey().key,
+                        h.getCount() + s.errors.sum(), s.ok.sum(), s.rejected.sum(), s.errors.sum(),
+                        h.getCount() / (double) durationSeconds, h.getValueAtPercentile(50) / 1e6,
+                        h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+            }
+        }
+    }
+}
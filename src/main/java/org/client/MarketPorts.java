@@ -0,0 +1,82 @@
+package org.client;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+import javax.xml.ws.handler.Handler;
+import org.server.MarketDirectory;
+import org.server.ShareMarketServer;
+import org.server.TraceHandler;
+
+// Ports for the market servers. The Service is built once from the WSDL bundled
+// on the classpath instead of downloading ?wsdl from a server, and each port gets
+// its market's address from MarketDirectory at runtime. Ports are kept for the
+// life of the client; they are not thread-safe, which suits the menu clients.
+// -Dclient.remoteWsdl=true fetches the WSDL from each server as before.
+// -Dclient.trace=true sends a new correlation ID with every request, for servers
+// running with market.trace; TraceHandler.lastId() gives the last one sent.
+public final class MarketPorts {
+
+    private static final QName SERVICE_NAME = new QName("http://server.org/", "ShareMarketServerImplService");
+    private static final String BUNDLED_WSDL = "/wsdl/ShareMarketServerImplService.wsdl";
+    private static final boolean REMOTE_WSDL = Boolean.getBoolean("client.remoteWsdl");
+    public static final boolean TRACING = Boolean.getBoolean("client.trace");
+    private static final Map<String, ShareMarketServer> PORTS = new ConcurrentHashMap<>();
+    private static Service bundledService;
+
+    private MarketPorts() {
+    }
+
+    public static ShareMarketServer forMarket(String market) throws IOException {
+        ShareMarketServer port = PORTS.get(market);
+        if (port == null) {
+            port = createPort(market);
+            PORTS.put(market, port);
+        }
+        return port;
+    }
+
+    // A port of the caller's own that is not cached, for callers on several threads
+    public static ShareMarketServer newPort(String market) throws IOException {
+        return createPort(market);
+    }
+
+    private static ShareMarketServer createPort(String market) throws IOException {
+        String address = MarketDirectory.webServiceUrl(market);
+        if (address == null) {
+            throw new IOException("Unknown market " + market);
+        }
+        ShareMarketServer port;
+        if (REMOTE_WSDL) {
+            port = Service.create(new URL(address + "?wsdl"), SERVICE_NAME).getPort(ShareMarketServer.class);
+        } else {
+            port = bundledService().getPort(ShareMarketServer.class);
+            ((BindingProvider) port).getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, address);
+        }
+        if (TRACING) {
+            // The JAX-WS API types the handler chain as a raw List<Handler>
+            @SuppressWarnings("rawtypes")
+            List<Handler> chain = new ArrayList<>(((BindingProvider) port).getBinding().getHandlerChain());
+            chain.add(new TraceHandler());
+            ((BindingProvider) port).getBinding().setHandlerChain(chain);
+        }
+        return port;
+    }
+
+    private static synchronized Service bundledService() throws IOException {
+        if (bundledService == null) {
+            URL wsdl = MarketPorts.class.getResource(BUNDLED_WSDL);
+            if (wsdl == null) {
+                throw new IOException("Bundled WSDL " + BUNDLED_WSDL + " is not on the classpath");
+            }
+            bundledService = Service.create(wsdl, SERVICE_NAME);
+        }
+        return bundledService;
+    }
+}
@@ -0,0 +1,38 @@
+package org.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Reusable direct buffers for datagrams. acquire never blocks: when the pool is
+// empty a new buffer is allocated, and release drops buffers the pool has no room
+// for, so the pool only caps what is kept around, not what is in use. DATAGRAMS is
+// the one every UDP server and client in the JVM takes its buffers from, since
+// request threads may be short-lived virtual threads that can't keep their own.
+public class BufferPool {
+
+    public static final int MAX_DATAGRAM = 65507;
+    public static final BufferPool DATAGRAMS = new BufferPool(Integer.getInteger("market.udp.pooledBuffers", 256), MAX_DATAGRAM);
+
+    private final BlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+
+    public BufferPool(int maxPooled, int bufferSize) {
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+        this.bufferSize = bufferSize;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    public int getPooledCount() {
+        return free.size();
+    }
+}
@@ -0,0 +1,101 @@
+package org.server;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.handler.Handler;
+
+// Publishes a market's SOAP endpoint on the executor chosen by
+// market.endpoint.executor:
+//   virtual  one virtual thread per request (the default); on a JDK without
+//            virtual threads this falls back to the bounded pool
+//   bounded  market.endpoint.threads platform threads (default 64) in front of a
+//            queue of market.endpoint.queue requests (default 1024); requests
+//            beyond that are refused rather than piling up
+//   jaxws    whatever the JAX-WS HTTP server uses when no executor is set
+// With -Dmarket.trace=true the endpoint also gets a TraceHandler.
+public final class EndpointExecutors {
+
+    static {
+        // The JDK HTTP server under both SOAP and JSON writes a reply's headers and
+        // body separately; without TCP_NODELAY a small body waits for the client's
+        // delayed ACK, about 40 ms per call on a kept-alive connection. Read once,
+        // when the first server starts, so it has to be set before then.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private EndpointExecutors() {
+    }
+
+    public static Endpoint publish(String address, ShareMarketServerImpl serverImpl) {
+        return publish(address, serverImpl, serverImpl.getCity());
+    }
+
+    // For another service of the city's market, such as its version 2 endpoint
+    public static Endpoint publish(String address, Object implementor, String city) {
+        Endpoint endpoint = Endpoint.create(implementor);
+        if (Trace.ENABLED) {
+            // The JAX-WS API types the handler chain as a raw List<Handler>
+            @SuppressWarnings("rawtypes")
+            List<Handler> chain = new ArrayList<>(endpoint.getBinding().getHandlerChain());
+            chain.add(new TraceHandler(city));
+            endpoint.getBinding().setHandlerChain(chain);
+        }
+        ExecutorService executor = create(city, System.getProperty("market.endpoint.executor", "virtual"));
+        if (executor != null) {
+            endpoint.setExecutor(executor);
+        }
+        endpoint.publish(address);
+        return endpoint;
+    }
+
+    // Returns null for "jaxws"
+    public static ExecutorService create(String city, String mode) {
+        switch (mode.toLowerCase()) {
+            case "jaxws":
+                return null;
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    System.out.println(city + " endpoint runs each request on a virtual thread");
+                    return virtual;
+                }
+                System.err.println("Virtual threads need Java 21; " + city + " endpoint falls back to a bounded pool");
+                return bounded(city);
+            case "bounded":
+                return bounded(city);
+            default:
+                throw new IllegalArgumentException("Unknown market.endpoint.executor " + mode);
+        }
+    }
+
+    // Looked up reflectively so the code still builds and runs on Java 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService bounded(String city) {
+        int threads = Integer.getInteger("market.endpoint.threads", 64);
+        int queue = Integer.getInteger("market.endpoint.queue", 1024);
+        AtomicInteger count = new AtomicInteger();
+        System.out.println(city + " endpoint runs requests on " + threads + " threads, queue " + queue);
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), r -> {
+            Thread t = new Thread(r, "endpoint-" + city + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
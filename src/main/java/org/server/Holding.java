@@ -0,0 +1,42 @@
+package org.server;
+
+// How many of one share a buyer holds in one market.
+public class Holding {
+
+    private String shareID;
+    private String shareType;
+    private int count;
+
+    public Holding() {
+    }
+
+    public Holding(String shareID, String shareType, int count) {
+        this.shareID = shareID;
+        this.shareType = shareType;
+        this.count = count;
+    }
+
+    public String getShareID() {
+        return shareID;
+    }
+
+    public void setShareID(String shareID) {
+        this.shareID = shareID;
+    }
+
+    public String getShareType() {
+        return shareType;
+    }
+
+    public void setShareType(String shareType) {
+        this.shareType = shareType;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,257 @@
+package org.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+// JSON over HTTP front end for clients that do not want to pay for SOAP. It runs
+// on the JDK's HttpServer against the same market as the SOAP endpoints. Every
+// operation is a POST to /market/<operation> with the SOAP parameters as a JSON
+// object, for example
+//   POST /market/purchaseShare
+//   {"buyerID":"NYKB0001","shareID":"NYKM100125","shareType":"Equity","shareCount":5}
+// and answers 200 with a status code as in version 2 of the SOAP service:
+//   {"status":"OK","message":"NYKB0001 successfully purchased 5 shares of Equity-NYKM100125"}
+// getShares answers "holdings", listShareAvailability "shares" and executeOrders
+// "results"; the global queries put their text in "message". A malformed request
+// gets 400 with status INVALID_REQUEST. Replies always carry a Content-Length, so
+// HTTP/1.1 clients keep their connection open between requests. Requests run on
+// the executor chosen by market.endpoint.executor, as for SOAP.
+//
+// A request with an X-Correlation-Id header is traced under that ID when tracing
+// is on, with a "json <operation>" span for the whole call.
+//
+// GET /metrics answers the market's MetricsRegistry in the Prometheus text format.
+public class JsonHttpEndpoint {
+
+    private static final String CONTEXT = "/market/";
+
+    private final ShareMarketServerImpl market;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Function<Map<String, Object>, String>> operations = new HashMap<>();
+
+    public JsonHttpEndpoint(ShareMarketServerImpl market, int port) throws IOException {
+        this.market = market;
+        // Before the server exists, so EndpointExecutors has set up the HTTP server options
+        this.executor = EndpointExecutors.create(market.getCity(), System.getProperty("market.endpoint.executor", "virtual"));
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        registerOperations();
+        server.createContext(CONTEXT, this::handle);
+        server.createContext("/metrics", this::handleMetrics);
+        if (executor != null) {
+            server.setExecutor(executor);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void registerOperations() {
+        // Admin Operations
+        operations.put("addShare", r -> result(market.add(text(r, "shareID"), text(r, "shareType"), number(r, "capacity"))));
+        operations.put("removeShare", r -> result(market.remove(text(r, "shareID"), text(r, "shareType"))));
+        operations.put("listShareAvailability", r -> availability(market.availability(text(r, "shareType"))));
+        operations.put("listGlobalShareAvailability", r -> result(OperationResult.ok(market.listGlobalShareAvailability(text(r, "shareType")))));
+        operations.put("purchaseRemoteShare", r -> result(market.purchaseRemote(text(r, "buyerID"), text(r, "shareID"),
+                text(r, "shareType"), number(r, "shareCount"), text(r, "targetMarket"))));
+        operations.put("sellRemoteShare", r -> result(market.sellRemote(text(r, "buyerID"), text(r, "shareID"),
+                text(r, "shareType"), number(r, "shareCount"), text(r, "targetMarket"))));
+
+        // Buyer Operations
+        operations.put("purchaseShare", r -> result(market.purchase(text(r, "buyerID"), text(r, "shareID"),
+                text(r, "shareType"), number(r, "shareCount"))));
+        operations.put("getShares", r -> holdings(market.holdings(text(r, "buyerID"))));
+        operations.put("getGlobalShares", r -> result(OperationResult.ok(market.getGlobalShares(text(r, "buyerID")))));
+        operations.put("sellShare", r -> result(market.sell(text(r, "buyerID"), text(r, "shareID"),
+                text(r, "shareType"), number(r, "shareCount"))));
+        operations.put("executeOrders", r -> results(market.execute(text(r, "buyerID"), orders(r))));
+        operations.put("swapShares", r -> result(market.swap(text(r, "buyerID"), text(r, "oldShareID"),
+                text(r, "oldShareType"), text(r, "newShareID"), text(r, "newShareType"))));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            // Read the whole body even when it goes unused, or the connection cannot be reused
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                reply(exchange, 405, error("Use POST"));
+                return;
+            }
+            Function<Map<String, Object>, String> operation =
+                    operations.get(exchange.getRequestURI().getPath().substring(CONTEXT.length()));
+            if (operation == null) {
+                reply(exchange, 404, error("No such operation " + exchange.getRequestURI().getPath()));
+                return;
+            }
+            String response;
+            String traceId = Trace.ENABLED ? exchange.getRequestHeaders().getFirst("X-Correlation-Id") : null;
+            Trace trace = Trace.isValidId(traceId) ? Trace.of(traceId, market.getCity()) : null;
+            Trace previous = trace == null ? null : Trace.resume(trace);
+            long started = System.nanoTime();
+            boolean success = false;
+            try {
+                Object request = Json.parse(new String(body, StandardCharsets.UTF_8));
+                if (!(request instanceof Map)) {
+                    throw new IllegalArgumentException("Request must be a JSON object");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> fields = (Map<String, Object>) request;
+                response = operation.apply(fields);
+                success = true;
+            } catch (IllegalArgumentException e) {
+                reply(exchange, 400, error(e.getMessage()));
+                return;
+            } finally {
+                if (trace != null) {
+                    Trace.resume(previous);
+                    trace.span("json " + exchange.getRequestURI().getPath().substring(CONTEXT.length()),
+                            started, System.nanoTime(), success);
+                }
+            }
+            reply(exchange, 200, response);
+        } catch (RuntimeException e) {
+            System.err.println("JSON request failed: " + e);
+            reply(exchange, 500, new StringBuilder("{\"status\":\"REMOTE_FAILURE\",\"message\":")
+                    .append(Json.quote(String.valueOf(e.getMessage()))).append('}').toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().readAllBytes();
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder();
+            market.getMetrics().writeText(text);
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String text(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Field " + name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static int number(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue()) {
+            throw new IllegalArgumentException("Field " + name + " must be an integer");
+        }
+        return ((Long) value).intValue();
+    }
+
+    private static TradeOrder[] orders(Map<String, Object> request) {
+        Object value = request.get("orders");
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Field orders must be an array");
+        }
+        List<?> list = (List<?>) value;
+        TradeOrder[] orders = new TradeOrder[list.size()];
+        for (int i = 0; i < orders.length; i++) {
+            if (!(list.get(i) instanceof Map)) {
+                throw new IllegalArgumentException("Order " + i + " must be an object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> order = (Map<String, Object>) list.get(i);
+            // An unknown side throws IllegalArgumentException too
+            orders[i] = new TradeOrder(TradeOrder.Side.valueOf(text(order, "side")), text(order, "shareID"),
+                    text(order, "shareType"), number(order, "quantity"));
+        }
+        return orders;
+    }
+
+    private static String error(String message) {
+        return new StringBuilder("{\"status\":\"INVALID_REQUEST\",\"message\":").append(Json.quote(message)).append('}').toString();
+    }
+
+    private static String result(OperationResult result) {
+        return appendResult(new StringBuilder(), result).toString();
+    }
+
+    private static StringBuilder appendResult(StringBuilder out, OperationResult result) {
+        return out.append("{\"status\":\"").append(result.getStatus()).append("\",\"message\":")
+                .append(Json.quote(result.getMessage())).append('}');
+    }
+
+    private static String results(OperationResult[] results) {
+        StringBuilder out = new StringBuilder("{\"status\":\"OK\",\"results\":[");
+        for (int i = 0; i < results.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            appendResult(out, results[i]);
+        }
+        return out.append("]}").toString();
+    }
+
+    private static String holdings(List<Holding> holdings) {
+        StringBuilder out = new StringBuilder("{\"status\":\"OK\",\"holdings\":[");
+        for (int i = 0; i < holdings.size(); i++) {
+            Holding holding = holdings.get(i);
+            out.append(i > 0 ? ",{" : "{")
+                    .append("\"shareID\":").append(Json.quote(holding.getShareID()))
+                    .append(",\"shareType\":").append(Json.quote(holding.getShareType()))
+                    .append(",\"count\":").append(holding.getCount()).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    private static String availability(List<ShareAvailability> shares) {
+        StringBuilder out = new StringBuilder("{\"status\":\"OK\",\"shares\":[");
+        for (int i = 0; i < shares.size(); i++) {
+            ShareAvailability share = shares.get(i);
+            out.append(i > 0 ? ",{" : "{")
+                    .append("\"shareID\":").append(Json.quote(share.getShareID()))
+                    .append(",\"shareType\":").append(Json.quote(share.getShareType()))
+                    .append(",\"available\":").append(share.getAvailable())
+                    .append(",\"originMarket\":").append(Json.quote(share.getOriginMarket())).append('}');
+        }
+        return out.append("]}").toString();
+    }
+}
@@ -1,17 +1,24 @@
 package org.server;
 
-import javax.xml.ws.Endpoint;
-
 public class LondonServer {
     public static void main(String[] args) {
         try {
             ShareMarketServerImpl serverImpl = new ShareMarketServerImpl("London", 5001);
 
-            // Publish the web service
-            Endpoint.publish("http://localhost:8081/ShareMarketService", serverImpl);
+            // Restore the market from its journal before taking requests
+            serverImpl.enablePersistence("data/London");
+
+            // Publish the web service on the configured request executor
+            EndpointExecutors.publish("http://localhost:8081/ShareMarketService", serverImpl);
+            EndpointExecutors.publish("http://localhost:8081/ShareMarketServiceV2", new ShareMarketServerV2Impl(serverImpl), "London");
 
             System.out.println("London ShareMarket Server ready at http://localhost:8081/ShareMarketService");
 
+            // JSON over HTTP for clients that skip SOAP
+            new JsonHttpEndpoint(serverImpl, 8091).start();
+            System.out.println("London JSON endpoint ready at http://localhost:8091/market/");
+            System.out.println("London metrics at http://localhost:8091/metrics");
+
             serverImpl.addRemoteServer("NewYork", 5000);
             serverImpl.addRemoteServer("Tokyo", 5002);
 
@@ -19,6 +26,9 @@ public class LondonServer {
             UDPServerThread udpThread = new UDPServerThread(5001, serverImpl, serverImpl.getShareDatabase());
             udpThread.start();
 
+            // Inventory and internals for jconsole and other JMX clients
+            MarketMonitor.register(serverImpl, udpThread);
+
         } catch (Exception e) {
             System.err.println("ERROR: " + e);
             e.printStackTrace(System.out);
@@ -0,0 +1,210 @@
+package org.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Read-only view of a version 2 snapshot file, mapped into memory. Opening it only
+// reads the fixed header; buyer holdings stay in the mapping until a request asks
+// for a buyer, which is found by binary search over the sorted buyer index.
+//
+// Layout (big-endian, all offsets are file positions):
+//   header   64 bytes, see SnapshotWriter.finish
+//   shares   shareCount x [type][id][available int][total int][origin]
+//   buyers   buyerCount x [id][holdingCount x ([shareKey][count int])]
+//   index    buyerCount x [nameOffset int][holdingsOffset int][holdingCount int][reserved int]
+// Strings are an unsigned short byte length followed by UTF-8 bytes. Buyers are
+// sorted by the unsigned bytes of their ID.
+public class MappedSnapshot {
+
+    static final int MAGIC = 0x44534D53; // "DSMS"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long segment;
+    private final int shareCount;
+    private final int buyerCount;
+    private final long holdingCount;
+    private final int sharesOffset;
+    private final int indexOffset;
+
+    private MappedSnapshot(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a version " + VERSION + " snapshot");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer header = buffer.duplicate();
+        header.position(0).limit(HEADER_SIZE - 4);
+        crc.update(header);
+        if ((int) crc.getValue() != buffer.getInt(HEADER_SIZE - 4)) {
+            throw new IOException("header checksum mismatch");
+        }
+        this.segment = buffer.getLong(8);
+        this.shareCount = buffer.getInt(16);
+        this.buyerCount = buffer.getInt(20);
+        this.holdingCount = buffer.getLong(24);
+        this.sharesOffset = buffer.getInt(32);
+        this.indexOffset = buffer.getInt(40);
+        if (buffer.getLong(48) != buffer.capacity()) {
+            throw new IOException("truncated snapshot");
+        }
+    }
+
+    public static MappedSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot larger than 2 GB: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            MappedSnapshot snapshot = new MappedSnapshot(file, mapped);
+            // A full check touches every page, so it is opt-in
+            if (Boolean.getBoolean("snapshot.verify")) {
+                snapshot.verifyBody();
+            }
+            return snapshot;
+        }
+    }
+
+    private void verifyBody() throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(56)) {
+            throw new IOException("body checksum mismatch");
+        }
+    }
+
+    // Shares are few, so they are materialized eagerly
+    void loadShares(Map<String, Map<String, Share>> shareDatabase) {
+        int position = sharesOffset;
+        for (int i = 0; i < shareCount; i++) {
+            String shareType = readString(position);
+            position += 2 + stringLength(position);
+            String shareID = readString(position);
+            position += 2 + stringLength(position);
+            int available = buffer.getInt(position);
+            int total = buffer.getInt(position + 4);
+            position += 8;
+            String origin = readString(position);
+            position += 2 + stringLength(position);
+            shareDatabase.computeIfAbsent(shareType, t -> new ConcurrentHashMap<>())
+                    .put(shareID, new Share(shareID, shareType, available, total, origin.isEmpty() ? null : origin));
+        }
+    }
+
+    // Returns a fresh, mutable copy of the buyer's holdings, or null if the buyer
+    // is not in this snapshot.
+    public Map<String, Integer> loadHoldings(String buyerID) {
+        int index = find(buyerID.getBytes(StandardCharsets.UTF_8));
+        return index < 0 ? null : holdingsAt(index);
+    }
+
+    Map<String, Integer> holdingsAt(int index) {
+        int entry = indexOffset + index * INDEX_ENTRY_SIZE;
+        int position = buffer.getInt(entry + 4);
+        int count = buffer.getInt(entry + 8);
+        Map<String, Integer> holdings = new ConcurrentHashMap<>(Math.max(16, count * 2));
+        for (int i = 0; i < count; i++) {
+            String shareKey = readString(position);
+            position += 2 + stringLength(position);
+            holdings.put(shareKey, buffer.getInt(position));
+            position += 4;
+        }
+        return holdings;
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = buyerCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareBuyer(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Compares the buyer ID at index with key as unsigned bytes
+    int compareBuyer(int index, byte[] key) {
+        int name = buffer.getInt(indexOffset + index * INDEX_ENTRY_SIZE);
+        int length = stringLength(name);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(name + 2 + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    byte[] buyerKey(int index) {
+        int name = buffer.getInt(indexOffset + index * INDEX_ENTRY_SIZE);
+        byte[] key = new byte[stringLength(name)];
+        buffer.get(name + 2, key);
+        return key;
+    }
+
+    // The raw [holdings...] bytes of one buyer, for copying into a newer snapshot
+    ByteBuffer holdingsBytes(int index) {
+        int entry = indexOffset + index * INDEX_ENTRY_SIZE;
+        int start = buffer.getInt(entry + 4);
+        int end = index + 1 < buyerCount
+                ? buffer.getInt(entry + INDEX_ENTRY_SIZE) : indexOffset;
+        return buffer.duplicate().position(start).limit(end).slice();
+    }
+
+    int holdingCountAt(int index) {
+        return buffer.getInt(indexOffset + index * INDEX_ENTRY_SIZE + 8);
+    }
+
+    private int stringLength(int position) {
+        return Short.toUnsignedInt(buffer.getShort(position));
+    }
+
+    private String readString(int position) {
+        byte[] bytes = new byte[stringLength(position)];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getSegment() {
+        return segment;
+    }
+
+    public int getShareCount() {
+        return shareCount;
+    }
+
+    public int getBuyerCount() {
+        return buyerCount;
+    }
+
+    public long getHoldingCount() {
+        return holdingCount;
+    }
+}
@@ -0,0 +1,32 @@
+package org.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Where each market's SOAP endpoint listens. The defaults match the three city
+// servers; -Dmarket.url.<City>=http://host:port/ShareMarketService overrides one
+// or adds another market. The version 2 endpoint listens at the same address with
+// V2 appended unless -Dmarket.urlV2.<City> says otherwise.
+public final class MarketDirectory {
+
+    private static final Map<String, String> DEFAULT_URLS = new HashMap<>();
+
+    static {
+        DEFAULT_URLS.put("NewYork", "http://localhost:8080/ShareMarketService");
+        DEFAULT_URLS.put("London", "http://localhost:8081/ShareMarketService");
+        DEFAULT_URLS.put("Tokyo", "http://localhost:8082/ShareMarketService");
+    }
+
+    private MarketDirectory() {
+    }
+
+    // Returns null for a market nobody has configured
+    public static String webServiceUrl(String market) {
+        return System.getProperty("market.url." + market, DEFAULT_URLS.get(market));
+    }
+
+    public static String webServiceV2Url(String market) {
+        String url = webServiceUrl(market);
+        return System.getProperty("market.urlV2." + market, url == null ? null : url + "V2");
+    }
+}
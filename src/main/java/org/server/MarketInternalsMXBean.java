@@ -0,0 +1,39 @@
+package org.server;
+
+import java.util.List;
+
+// A market's server internals over JMX under org.server:type=MarketInternals
+public interface MarketInternalsMXBean {
+
+    String getMarket();
+
+    int getUdpQueueDepth();
+
+    long getUdpReceivedCount();
+
+    long getUdpDroppedCount();
+
+    long getUdpDuplicateCount();
+
+    int getRemoteCallsInFlight();
+
+    List<String> getInFlightRemoteCalls();
+
+    long getRemoteCallsCompleted();
+
+    long getRemoteCallsFailed();
+
+    long getRemoteCallsRejected();
+
+    int getSwapHoldCount();
+
+    long getExpiredHoldCount();
+
+    long getRecordsSinceSnapshot();
+
+    // Writes a snapshot now and says whether there was anything to write
+    String forceSnapshot();
+
+    // Zeroes the latency histograms and the UDP and remote call counters
+    void resetStatistics();
+}
@@ -0,0 +1,26 @@
+package org.server;
+
+import java.util.Map;
+
+// What a market holds, as seen over JMX under org.server:type=MarketInventory.
+// Maps are keyed by share type.
+public interface MarketInventoryMXBean {
+
+    String getMarket();
+
+    int getShareCount();
+
+    Map<String, Integer> getShareCountByType();
+
+    Map<String, Long> getTotalCapacityByType();
+
+    Map<String, Long> getAvailableCapacityByType();
+
+    // Buyers with holdings in memory; buyers still only in the snapshot are counted
+    // by SnapshotBuyerCount
+    int getBuyerCount();
+
+    long getHoldingCount();
+
+    int getSnapshotBuyerCount();
+}
@@ -0,0 +1,610 @@
+package org.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Write-ahead log plus periodic snapshots for one market.
+//
+// Every mutation appends a record while it still holds its lock stripes, then waits
+// for durability after releasing them. One committer thread writes everything that
+// queued up since its last pass and fsyncs once for the whole group.
+//
+// The log is split into numbered segments. snapshot-N holds the state produced by
+// every record in segments below N, so recovery loads the newest snapshot and only
+// replays segments N and above. Mutations run under the read side of mutationLock;
+// a snapshot takes the write side just long enough to copy the maps and start a new
+// segment, then writes the copy in the background.
+//
+// Settings (system properties):
+//   journal.snapshotEveryRecords  (default 200000)
+//   journal.snapshotIntervalSec   (default 300)
+public class MarketJournal {
+
+    static final byte ADD_SHARE = 1;
+    static final byte REMOVE_SHARE = 2;
+    static final byte PURCHASE = 3;
+    static final byte SELL = 4;
+    static final byte LOCAL_SWAP = 5;
+    static final byte REMOTE_SWAP_OUT = 6;
+    static final byte REMOTE_SWAP_IN = 7;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // No record comes near this (a few short strings and ints); a longer length is
+    // a torn or zero-filled tail, not a record
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final ShareMarketServerImpl market;
+    private final Path directory;
+    private final long snapshotEveryRecords;
+    private final ReentrantReadWriteLock mutationLock = new ReentrantReadWriteLock();
+
+    // Group commit state, guarded by commitLock
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition pendingAvailable = commitLock.newCondition();
+    private final Condition durableAdvanced = commitLock.newCondition();
+    private List<byte[]> pending = new ArrayList<>();
+    private long appendedSeq;
+    private long durableSeq;
+    // Set under commitLock; volatile so isFailed can be checked on every trade without it
+    private volatile boolean failed;
+    private volatile boolean running = true;
+
+    // Guards the current segment; written by the committer, swapped by snapshots
+    private final Object segmentLock = new Object();
+    private FileChannel segment;
+    private long segmentNumber;
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final AtomicLong groupCommits = new AtomicLong();
+    private final AtomicLong committedRecords = new AtomicLong();
+    private final Thread committer;
+    private final ScheduledExecutorService snapshotter;
+    private volatile boolean snapshotRunning;
+
+    private long recoveryMillis;
+    private long replayedRecords;
+
+    private MarketJournal(ShareMarketServerImpl market, Path directory) {
+        this.market = market;
+        this.directory = directory;
+        this.snapshotEveryRecords = Long.getLong("journal.snapshotEveryRecords", 200_000L);
+        this.committer = new Thread(this::commitLoop, "journal-commit-" + market.getCity());
+        this.committer.setDaemon(true);
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-snapshot-" + market.getCity());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Recovers the market from directory and starts logging new mutations there.
+    // Must run before the market serves any request.
+    public static MarketJournal open(ShareMarketServerImpl market, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MarketJournal journal = new MarketJournal(market, directory);
+        journal.recover();
+        journal.committer.start();
+        long interval = Long.getLong("journal.snapshotIntervalSec", 300L);
+        journal.snapshotter.scheduleWithFixedDelay(journal::snapshotIfDirty, interval, interval, TimeUnit.SECONDS);
+        return journal;
+    }
+
+    // ---- mutation side ----
+
+    // Taken before any buyer or share stripe
+    public void beginMutation() {
+        mutationLock.readLock().lock();
+    }
+
+    // For a thread that already holds a buyer stripe. A plain read lock would queue
+    // behind a waiting snapshot while the snapshot waits for readers that may be
+    // blocked on that stripe, so this barges in unless a snapshot is actually copying.
+    public void beginNestedMutation() {
+        while (!mutationLock.readLock().tryLock()) {
+            LockSupport.parkNanos(50_000L);
+        }
+    }
+
+    // Whether a snapshot holds or is waiting for the write side, so that a mutation
+    // starting now would probably wait; only used to decide what to time
+    public boolean isMutationBlocked() {
+        return mutationLock.isWriteLocked() || mutationLock.hasQueuedThreads();
+    }
+
+    public void endMutation() {
+        mutationLock.readLock().unlock();
+    }
+
+    // Ticket for a record that was refused because an earlier write failed
+    public static final long FAILED_TICKET = -1;
+
+    // Queues a record for the next group commit; call between begin/endMutation.
+    // Returns the ticket to pass to awaitDurable once the stripes are released, or
+    // FAILED_TICKET once a write has failed: the commit thread has stopped, so
+    // nothing queued now would ever be written.
+    public long append(byte[] record) {
+        commitLock.lock();
+        try {
+            if (failed) {
+                return FAILED_TICKET;
+            }
+            pending.add(record);
+            recordsSinceSnapshot.incrementAndGet();
+            pendingAvailable.signal();
+            return ++appendedSeq;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // append for several records under one lock; returns the last one's ticket
+    public long appendAll(List<byte[]> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        commitLock.lock();
+        try {
+            if (failed) {
+                return FAILED_TICKET;
+            }
+            pending.addAll(records);
+            recordsSinceSnapshot.addAndGet(records.size());
+            pendingAvailable.signal();
+            appendedSeq += records.size();
+            return appendedSeq;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // Whether the record with this ticket reached the disk
+    public boolean awaitDurable(long ticket) {
+        if (ticket == FAILED_TICKET) {
+            return false;
+        }
+        commitLock.lock();
+        try {
+            while (durableSeq < ticket && !failed) {
+                durableAdvanced.awaitUninterruptibly();
+            }
+            return durableSeq >= ticket;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long upTo;
+            commitLock.lock();
+            try {
+                while (pending.isEmpty() && running) {
+                    pendingAvailable.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>(batch.size());
+                upTo = appendedSeq;
+            } finally {
+                commitLock.unlock();
+            }
+
+            boolean ok = writeGroup(batch);
+            commitLock.lock();
+            try {
+                if (ok) {
+                    durableSeq = upTo;
+                } else {
+                    failed = true;
+                    // Nothing will write what is still queued; later appends are refused
+                    pending.clear();
+                }
+                durableAdvanced.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
+            if (!ok) {
+                return;
+            }
+            if (recordsSinceSnapshot.get() >= snapshotEveryRecords && !snapshotRunning) {
+                snapshotRunning = true;
+                snapshotter.execute(this::snapshotIfDirty);
+            }
+        }
+    }
+
+    private boolean writeGroup(List<byte[]> batch) {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += 8 + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] record : batch) {
+            crc.reset();
+            crc.update(record, 0, record.length);
+            buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+        buffer.flip();
+        try {
+            synchronized (segmentLock) {
+                while (buffer.hasRemaining()) {
+                    segment.write(buffer);
+                }
+                segment.force(false);
+            }
+            groupCommits.incrementAndGet();
+            committedRecords.addAndGet(batch.size());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Journal write failed for " + market.getCity() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ---- record encoding ----
+
+    static byte[] addShare(String shareType, String shareID, int capacity) {
+        return encode(ADD_SHARE, out -> {
+            out.writeUTF(shareType);
+            out.writeUTF(shareID);
+            out.writeInt(capacity);
+        });
+    }
+
+    static byte[] removeShare(String shareType, String shareID) {
+        return encode(REMOVE_SHARE, out -> {
+            out.writeUTF(shareType);
+            out.writeUTF(shareID);
+        });
+    }
+
+    static byte[] trade(byte type, String buyerID, String shareType, String shareID, int quantity) {
+        return encode(type, out -> {
+            out.writeUTF(buyerID);
+            out.writeUTF(shareType);
+            out.writeUTF(shareID);
+            out.writeInt(quantity);
+        });
+    }
+
+    static byte[] swap(byte type, String buyerID, String oldShareType, String oldShareID,
+                       String newShareType, String newShareID, int count) {
+        return encode(type, out -> {
+            out.writeUTF(buyerID);
+            out.writeUTF(oldShareType);
+            out.writeUTF(oldShareID);
+            out.writeUTF(newShareType);
+            out.writeUTF(newShareID);
+            out.writeInt(count);
+        });
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(byte type, RecordBody body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            body.write(out);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---- recovery ----
+
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        long snapshotSegment = SnapshotFile.loadLatest(directory, market);
+        TreeMap<Long, Path> segments = listSegments();
+        long replayed = 0;
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            if (entry.getKey() >= snapshotSegment) {
+                replayed += replaySegment(entry.getValue());
+            }
+        }
+        // Never append to a segment that may end in a torn record
+        long next = Math.max(snapshotSegment, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        openSegment(next);
+        recordsSinceSnapshot.set(replayed);
+        replayedRecords = replayed;
+        recoveryMillis = (System.nanoTime() - started) / 1_000_000;
+        System.out.println("Recovered " + market.getCity() + " market from " + directory + ": snapshot segment " +
+                snapshotSegment + ", replayed " + replayed + " log records in " + recoveryMillis + " ms");
+    }
+
+    // Replays records up to the first one that is torn, corrupt or implausible,
+    // which is where a crash stopped the log, and truncates the segment there so
+    // the bad tail is never read again
+    private long replaySegment(Path file) throws IOException {
+        long count = 0;
+        long size = Files.size(file);
+        long goodBytes = 0;
+        String badTail = null;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (goodBytes < size) {
+                if (size - goodBytes < 8) {
+                    badTail = "torn record header";
+                    break;
+                }
+                int length = in.readInt();
+                int expected = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || length > size - goodBytes - 8) {
+                    badTail = "record of length " + length;
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record, 0, record.length);
+                if ((int) crc.getValue() != expected) {
+                    badTail = "corrupt record";
+                    break;
+                }
+                apply(record);
+                count++;
+                goodBytes += 8 + length;
+            }
+        }
+        if (badTail != null) {
+            System.err.println("Ignoring " + badTail + " at byte " + goodBytes + " of " + file + ", truncating "
+                    + (size - goodBytes) + " bytes");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(goodBytes);
+                channel.force(true);
+            }
+        }
+        return count;
+    }
+
+    // Replays one record with the same effect the live operation had. Capacity is
+    // adjusted unconditionally because records are ordered per buyer, not per share.
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        Map<String, Map<String, Share>> shares = market.getShareDatabase();
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_SHARE: {
+                String shareType = in.readUTF();
+                String shareID = in.readUTF();
+                int capacity = in.readInt();
+                shares.computeIfAbsent(shareType, t -> new ConcurrentHashMap<>())
+                        .putIfAbsent(shareID, new Share(shareID, shareType, capacity, market.getCity()));
+                break;
+            }
+            case REMOVE_SHARE: {
+                String shareType = in.readUTF();
+                String shareID = in.readUTF();
+                Map<String, Share> sharesOfType = shares.get(shareType);
+                if (sharesOfType != null) {
+                    sharesOfType.remove(shareID);
+                }
+                break;
+            }
+            case PURCHASE:
+            case SELL: {
+                String buyerID = in.readUTF();
+                String shareType = in.readUTF();
+                String shareID = in.readUTF();
+                int quantity = in.readInt();
+                int delta = type == PURCHASE ? quantity : -quantity;
+                adjustCapacity(shares, shareType, shareID, -delta);
+                adjustHolding(market, buyerID, shareType + "-" + shareID, delta);
+                break;
+            }
+            case LOCAL_SWAP:
+            case REMOTE_SWAP_OUT:
+            case REMOTE_SWAP_IN: {
+                String buyerID = in.readUTF();
+                String oldShareType = in.readUTF();
+                String oldShareID = in.readUTF();
+                String newShareType = in.readUTF();
+                String newShareID = in.readUTF();
+                int count = in.readInt();
+                String newShareKey = newShareType + "-" + newShareID;
+                if (type == REMOTE_SWAP_IN) {
+                    adjustCapacity(shares, newShareType, newShareID, -count);
+                    adjustHolding(market, buyerID, newShareKey, count);
+                    break;
+                }
+                if (type == REMOTE_SWAP_OUT) {
+                    // Trades of the same buyer may have landed while the peer was asked
+                    adjustHolding(market, buyerID, oldShareType + "-" + oldShareID, -count);
+                    adjustHolding(market, buyerID, newShareKey, count);
+                    break;
+                }
+                Map<String, Integer> buyer = market.holdingsOf(buyerID);
+                buyer.remove(oldShareType + "-" + oldShareID);
+                buyer.merge(newShareKey, count, Integer::sum);
+                adjustCapacity(shares, oldShareType, oldShareID, count);
+                adjustCapacity(shares, newShareType, newShareID, -count);
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void adjustCapacity(Map<String, Map<String, Share>> shares, String shareType, String shareID, int delta) {
+        Map<String, Share> sharesOfType = shares.get(shareType);
+        Share share = sharesOfType == null ? null : sharesOfType.get(shareID);
+        if (share != null) {
+            share.adjustCapacity(delta);
+        }
+    }
+
+    // Goes through holdingsOf so a buyer kept in the snapshot view is loaded first
+    private static void adjustHolding(ShareMarketServerImpl market, String buyerID, String shareKey, int delta) {
+        market.holdingsOf(buyerID).compute(shareKey, (key, count) -> {
+                    int updated = (count == null ? 0 : count) + delta;
+                    return updated == 0 ? null : updated;
+                });
+    }
+
+    // ---- segments and snapshots ----
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        return segments;
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Forces a snapshot now. Returns false if the journal has nothing new to save.
+    public boolean snapshot() {
+        snapshotRunning = true;
+        try {
+            return writeSnapshot();
+        } catch (IOException e) {
+            System.err.println("Snapshot failed for " + market.getCity() + ": " + e.getMessage());
+            return false;
+        } finally {
+            snapshotRunning = false;
+        }
+    }
+
+    private void snapshotIfDirty() {
+        if (recordsSinceSnapshot.get() > 0) {
+            snapshot();
+        } else {
+            snapshotRunning = false;
+        }
+    }
+
+    // synchronized only keeps two snapshots from overlapping
+    private synchronized boolean writeSnapshot() throws IOException {
+        SnapshotFile.State state;
+        long snapshotSegment;
+        mutationLock.writeLock().lock();
+        try {
+            if (recordsSinceSnapshot.get() == 0) {
+                return false;
+            }
+            // No mutation can append now; wait for the committer to drain what is queued
+            awaitDurable(appendedSeq());
+            state = SnapshotFile.capture(market);
+            synchronized (segmentLock) {
+                segment.close();
+                openSegment(segmentNumber + 1);
+                snapshotSegment = segmentNumber;
+            }
+            recordsSinceSnapshot.set(0);
+        } finally {
+            mutationLock.writeLock().unlock();
+        }
+
+        long started = System.nanoTime();
+        Path written = SnapshotFile.write(directory, snapshotSegment, state);
+        // Buyers captured on the heap stay there, so the new view only has to serve
+        // the ones that were copied across from the old one
+        market.attachSnapshot(MappedSnapshot.open(written));
+        for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+            if (entry.getKey() < snapshotSegment) {
+                Files.deleteIfExists(entry.getValue());
+            }
+        }
+        SnapshotFile.deleteOlderThan(directory, snapshotSegment);
+        System.out.println("Snapshot " + snapshotSegment + " of " + market.getCity() + " written in " +
+                (System.nanoTime() - started) / 1_000_000 + " ms");
+        return true;
+    }
+
+    private long appendedSeq() {
+        commitLock.lock();
+        try {
+            return appendedSeq;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    public void close() {
+        commitLock.lock();
+        try {
+            running = false;
+            pendingAvailable.signal();
+        } finally {
+            commitLock.unlock();
+        }
+        try {
+            committer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotter.shutdown();
+        try {
+            synchronized (segmentLock) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Closing journal failed: " + e.getMessage());
+        }
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public long getGroupCommits() {
+        return groupCommits.get();
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords.get();
+    }
+
+    public long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot.get();
+    }
+}
@@ -0,0 +1,207 @@
+package org.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Registers a market's MXBeans with the platform MBean server, so jconsole or any
+// JMX client can watch a running server without going through SOAP. Every read
+// walks the concurrent maps directly and takes none of the trading locks; the
+// figures are each consistent on their own but may be a moment apart, which is
+// all a monitor needs.
+public final class MarketMonitor {
+
+    private MarketMonitor() {
+    }
+
+    // Registers both views as org.server:type=...,market=<city>
+    public static void register(ShareMarketServerImpl market, UDPServerThread udpServer) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new Inventory(market), new ObjectName("org.server", nameProperties("MarketInventory", market.getCity())));
+        server.registerMBean(new Internals(market, udpServer),
+                new ObjectName("org.server", nameProperties("MarketInternals", market.getCity())));
+    }
+
+    private static Hashtable<String, String> nameProperties(String type, String city) {
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put("type", type);
+        properties.put("market", city);
+        return properties;
+    }
+
+    static final class Inventory implements MarketInventoryMXBean {
+        private final ShareMarketServerImpl market;
+
+        Inventory(ShareMarketServerImpl market) {
+            this.market = market;
+        }
+
+        @Override
+        public String getMarket() {
+            return market.getCity();
+        }
+
+        @Override
+        public int getShareCount() {
+            int count = 0;
+            for (Map<String, Share> sharesOfType : market.getShareDatabase().values()) {
+                count += sharesOfType.size();
+            }
+            return count;
+        }
+
+        @Override
+        public Map<String, Integer> getShareCountByType() {
+            Map<String, Integer> counts = new HashMap<>();
+            for (Map.Entry<String, Map<String, Share>> type : market.getShareDatabase().entrySet()) {
+                counts.put(type.getKey(), type.getValue().size());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getTotalCapacityByType() {
+            Map<String, Long> totals = new HashMap<>();
+            for (Map.Entry<String, Map<String, Share>> type : market.getShareDatabase().entrySet()) {
+                long total = 0;
+                for (Share share : type.getValue().values()) {
+                    total += share.getTotalCapacity();
+                }
+                totals.put(type.getKey(), total);
+            }
+            return totals;
+        }
+
+        @Override
+        public Map<String, Long> getAvailableCapacityByType() {
+            Map<String, Long> available = new HashMap<>();
+            for (Map.Entry<String, Map<String, Share>> type : market.getShareDatabase().entrySet()) {
+                long total = 0;
+                for (Share share : type.getValue().values()) {
+                    total += share.getAvailableCapacity();
+                }
+                available.put(type.getKey(), total);
+            }
+            return available;
+        }
+
+        @Override
+        public int getBuyerCount() {
+            return market.getBuyerHoldings().size();
+        }
+
+        @Override
+        public long getHoldingCount() {
+            long count = 0;
+            for (Map<String, Integer> holdings : market.getBuyerHoldings().values()) {
+                count += holdings.size();
+            }
+            return count;
+        }
+
+        @Override
+        public int getSnapshotBuyerCount() {
+            MappedSnapshot view = market.getSnapshotView();
+            return view == null ? 0 : view.getBuyerCount();
+        }
+    }
+
+    static final class Internals implements MarketInternalsMXBean {
+        private final ShareMarketServerImpl market;
+        private final UDPServerThread udpServer;
+
+        Internals(ShareMarketServerImpl market, UDPServerThread udpServer) {
+            this.market = market;
+            this.udpServer = udpServer;
+        }
+
+        @Override
+        public String getMarket() {
+            return market.getCity();
+        }
+
+        @Override
+        public int getUdpQueueDepth() {
+            return udpServer == null ? 0 : udpServer.getQueueDepth();
+        }
+
+        @Override
+        public long getUdpReceivedCount() {
+            return udpServer == null ? 0 : udpServer.getReceivedCount();
+        }
+
+        @Override
+        public long getUdpDroppedCount() {
+            return udpServer == null ? 0 : udpServer.getDroppedCount();
+        }
+
+        @Override
+        public long getUdpDuplicateCount() {
+            return udpServer == null ? 0 : udpServer.getDuplicateCount();
+        }
+
+        @Override
+        public int getRemoteCallsInFlight() {
+            return market.getRemoteCalls().getInFlightCount();
+        }
+
+        @Override
+        public List<String> getInFlightRemoteCalls() {
+            return market.getRemoteCalls().describeInFlight();
+        }
+
+        @Override
+        public long getRemoteCallsCompleted() {
+            return market.getRemoteCalls().getCompletedCount();
+        }
+
+        @Override
+        public long getRemoteCallsFailed() {
+            return market.getRemoteCalls().getFailedCount();
+        }
+
+        @Override
+        public long getRemoteCallsRejected() {
+            return market.getRemoteCalls().getRejectedCount();
+        }
+
+        @Override
+        public int getSwapHoldCount() {
+            return market.getSwapHoldCount();
+        }
+
+        @Override
+        public long getExpiredHoldCount() {
+            return market.getExpiredHoldCount();
+        }
+
+        @Override
+        public long getRecordsSinceSnapshot() {
+            MarketJournal journal = market.getJournal();
+            return journal == null ? 0 : journal.getRecordsSinceSnapshot();
+        }
+
+        @Override
+        public String forceSnapshot() {
+            MarketJournal journal = market.getJournal();
+            if (journal == null) {
+                return "Persistence is off for " + market.getCity();
+            }
+            return journal.snapshot() ? "Snapshot written" : "No snapshot written: nothing new since the last one, or it failed (see the log)";
+        }
+
+        @Override
+        public void resetStatistics() {
+            market.getMetrics().reset();
+            market.getRemoteCalls().resetCounts();
+            if (udpServer != null) {
+                udpServer.resetCounts();
+            }
+        }
+    }
+}
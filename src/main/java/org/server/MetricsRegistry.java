@@ -0,0 +1,114 @@
+package org.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histograms and failure counts for one market, grouped into families
+// and named within each:
+//   operation    market operations, whichever endpoint (SOAP, JSON) called them
+//   udp_command  commands other markets sent to UDPServerThread
+//   lock_wait    time blocked on a contended lock; acquisitions that did not
+//                have to wait are not timed, so the count is the contended ones
+//   remote_call  calls to other markets, by protocol and peer
+// A sample costs a nanoTime read and a few uncontended atomic adds. writeText
+// renders everything in the Prometheus text format for scraping. While a traced
+// request is current on the thread, each sample is also a span of its trace.
+public class MetricsRegistry {
+
+    public static final class Timer {
+        private final String label;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+
+        Timer(String label) {
+            this.label = label;
+        }
+
+        public void record(long startedNanos, boolean success) {
+            record(Trace.ENABLED ? Trace.current() : null, startedNanos, success);
+        }
+
+        // For samples taken off the traced thread, such as a remote call completing
+        public void record(Trace trace, long startedNanos, boolean success) {
+            long ended = System.nanoTime();
+            latency.record(ended - startedNanos);
+            if (!success) {
+                failures.increment();
+            }
+            if (trace != null) {
+                trace.span(label, startedNanos, ended, success);
+            }
+        }
+
+        // Records and hands result back, so a timed method can end in one return
+        public OperationResult record(long startedNanos, OperationResult result) {
+            record(startedNanos, result.isSuccess());
+            return result;
+        }
+
+        public void reset() {
+            latency.reset();
+            failures.reset();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getFailureCount() {
+            return failures.sum();
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final String market;
+    private final Map<String, Map<String, Timer>> families = new ConcurrentHashMap<>();
+
+    public MetricsRegistry(String market) {
+        this.market = market;
+    }
+
+    public Timer timer(String family, String name) {
+        Map<String, Timer> timers = families.get(family);
+        if (timers == null) {
+            timers = families.computeIfAbsent(family, f -> new ConcurrentHashMap<>());
+        }
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, n -> new Timer(family + " " + n));
+    }
+
+    public void reset() {
+        for (Map<String, Timer> timers : families.values()) {
+            for (Timer timer : timers.values()) {
+                timer.reset();
+            }
+        }
+    }
+
+    // One summary per family with seconds at each quantile, plus a failure counter
+    public void writeText(StringBuilder out) {
+        for (Map.Entry<String, Map<String, Timer>> family : new TreeMap<>(families).entrySet()) {
+            String metric = "dsms_" + family.getKey();
+            Map<String, Timer> timers = new TreeMap<>(family.getValue());
+            out.append("# TYPE ").append(metric).append("_seconds summary\n");
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                LatencyHistogram latency = entry.getValue().getLatency();
+                String labels = "market=\"" + market + "\",name=\"" + entry.getKey() + "\"";
+                for (double quantile : QUANTILES) {
+                    out.append(metric).append("_seconds{").append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                            .append(latency.getValueAtPercentile(quantile * 100) / 1e9).append('\n');
+                }
+                out.append(metric).append("_seconds_sum{").append(labels).append("} ").append(latency.getTotal() / 1e9).append('\n');
+                out.append(metric).append("_seconds_count{").append(labels).append("} ").append(latency.getCount()).append('\n');
+            }
+            out.append("# TYPE ").append(metric).append("_failures_total counter\n");
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                out.append(metric).append("_failures_total{market=\"").append(market).append("\",name=\"")
+                        .append(entry.getKey()).append("\"} ").append(entry.getValue().getFailureCount()).append('\n');
+            }
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package org.server;
 
-import javax.xml.ws.Endpoint;
-
 public class NewYorkServer {
     public static void main(String[] args) {
         try {
             ShareMarketServerImpl serverImpl = new ShareMarketServerImpl("NewYork", 5000);
 
-            // Publish the web service
-            Endpoint.publish("http://localhost:8080/ShareMarketService", serverImpl);
+            // Restore the market from its journal before taking requests
+            serverImpl.enablePersistence("data/NewYork");
+
+            // Publish the web service on the configured request executor
+            EndpointExecutors.publish("http://localhost:8080/ShareMarketService", serverImpl);
+            EndpointExecutors.publish("http://localhost:8080/ShareMarketServiceV2", new ShareMarketServerV2Impl(serverImpl), "NewYork");
 
             System.out.println("NewYork ShareMarket Server ready at http://localhost:8080/ShareMarketService");
 
+            // JSON over HTTP for clients that skip SOAP
+            new JsonHttpEndpoint(serverImpl, 8090).start();
+            System.out.println("NewYork JSON endpoint ready at http://localhost:8090/market/");
+            System.out.println("NewYork metrics at http://localhost:8090/metrics");
+
             serverImpl.addRemoteServer("London", 5001);
             serverImpl.addRemoteServer("Tokyo", 5002);
 
@@ -19,6 +26,9 @@ public class NewYorkServer {
             UDPServerThread udpThread = new UDPServerThread(5000, serverImpl, serverImpl.getShareDatabase());
             udpThread.start();
 
+            // Inventory and internals for jconsole and other JMX clients
+            MarketMonitor.register(serverImpl, udpThread);
+
         } catch (Exception e) {
             System.err.println("ERROR: " + e);
             e.printStackTrace(System.out);
@@ -0,0 +1,42 @@
+package org.server;
+
+// A status code and the message the string interface returns for the same
+// outcome. A plain bean so JAX-WS can map it to and from XML.
+public class OperationResult {
+
+    private StatusCode status;
+    private String message;
+
+    public OperationResult() {
+    }
+
+    public OperationResult(StatusCode status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    static OperationResult ok(String message) {
+        return new OperationResult(StatusCode.OK, message);
+    }
+
+    // Derived, so not mapped to XML
+    public boolean isSuccess() {
+        return status == StatusCode.OK;
+    }
+
+    public StatusCode getStatus() {
+        return status;
+    }
+
+    public void setStatus(StatusCode status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,390 @@
+package org.server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One inter-market UDP message, reused across messages by whoever owns it.
+//
+// Binary format (market.udp.protocol=binary, the default), big-endian:
+//   request  magic u16 | version u8 | command u8 | requestId i64 | fields
+//              LIST_AVAILABILITY        shareType
+//              CHECK_SWAP_AVAILABILITY  shareID shareType count
+//              EXECUTE_SWAP             buyerID oldShareID oldShareType shareID shareType count
+//              PREPARE_SWAP             buyerID shareID shareType count
+//              COMMIT_SWAP, ABORT_SWAP  holdId
+//              GET_SHARES               buyerID
+//   reply    magic u16 | version u8 | REPLY u8 | requestId i64 | text
+// A request may end with the string traceId, the correlation ID of a traced
+// request; older decoders ignore the trailing bytes. In text it is a last
+// field TRACE=<id>, which older parsers ignore as an extra field.
+// Strings are a u16 byte length followed by modified UTF-8, as DataOutput.writeUTF
+// writes them; counts are i32 and hold ids i64. The magic can't start a text command, so servers
+// accept both formats and answer in the one they were asked in; text stays
+// available (market.udp.protocol=text) while peers are upgraded.
+public class PeerMessage {
+
+    static final short MAGIC = 0x444D; // "DM"
+    static final byte VERSION = 1;
+
+    public static final byte LIST_AVAILABILITY = 1;
+    public static final byte CHECK_SWAP_AVAILABILITY = 2;
+    public static final byte EXECUTE_SWAP = 3;
+    public static final byte PREPARE_SWAP = 4;
+    public static final byte COMMIT_SWAP = 5;
+    public static final byte ABORT_SWAP = 6;
+    public static final byte GET_SHARES = 7;
+    public static final byte REPLY = 127;
+
+    byte command;
+    long requestId;
+    String buyerID;
+    String oldShareID;
+    String oldShareType;
+    String shareID;
+    String shareType;
+    int count;
+    long holdId;
+    String text;
+    String traceId;
+    // Whether the last decoded message was binary, so a reply can match it
+    boolean binary = true;
+
+    private char[] chars = new char[64];
+
+    public static PeerMessage listAvailability(String shareType) {
+        PeerMessage message = new PeerMessage();
+        message.command = LIST_AVAILABILITY;
+        message.shareType = shareType;
+        return message;
+    }
+
+    public static PeerMessage checkSwapAvailability(String shareID, String shareType, int count) {
+        PeerMessage message = new PeerMessage();
+        message.command = CHECK_SWAP_AVAILABILITY;
+        message.shareID = shareID;
+        message.shareType = shareType;
+        message.count = count;
+        return message;
+    }
+
+    public static PeerMessage executeSwap(String buyerID, String oldShareID, String oldShareType,
+                                          String newShareID, String newShareType, int count) {
+        PeerMessage message = new PeerMessage();
+        message.command = EXECUTE_SWAP;
+        message.buyerID = buyerID;
+        message.oldShareID = oldShareID;
+        message.oldShareType = oldShareType;
+        message.shareID = newShareID;
+        message.shareType = newShareType;
+        message.count = count;
+        return message;
+    }
+
+    public static PeerMessage prepareSwap(String buyerID, String shareID, String shareType, int count) {
+        PeerMessage message = new PeerMessage();
+        message.command = PREPARE_SWAP;
+        message.buyerID = buyerID;
+        message.shareID = shareID;
+        message.shareType = shareType;
+        message.count = count;
+        return message;
+    }
+
+    public static PeerMessage commitSwap(long holdId) {
+        PeerMessage message = new PeerMessage();
+        message.command = COMMIT_SWAP;
+        message.holdId = holdId;
+        return message;
+    }
+
+    public static PeerMessage abortSwap(long holdId) {
+        PeerMessage message = new PeerMessage();
+        message.command = ABORT_SWAP;
+        message.holdId = holdId;
+        return message;
+    }
+
+    public static PeerMessage getShares(String buyerID) {
+        PeerMessage message = new PeerMessage();
+        message.command = GET_SHARES;
+        message.buyerID = buyerID;
+        return message;
+    }
+
+    // Turns this message into the reply to itself, keeping its id and format
+    void reply(String text) {
+        this.command = REPLY;
+        this.text = text;
+    }
+
+    public byte getCommand() {
+        return command;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    // Writes this message at out's position in the binary or the text format
+    public void encode(ByteBuffer out, boolean binary) {
+        if (!binary) {
+            String line = traceId == null || command == REPLY ? toText() : toText() + " TRACE=" + traceId;
+            out.put(line.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        out.putShort(MAGIC).put(VERSION).put(command).putLong(requestId);
+        switch (command) {
+            case LIST_AVAILABILITY:
+                putString(out, shareType);
+                break;
+            case CHECK_SWAP_AVAILABILITY:
+                putString(out, shareID);
+                putString(out, shareType);
+                out.putInt(count);
+                break;
+            case EXECUTE_SWAP:
+                putString(out, buyerID);
+                putString(out, oldShareID);
+                putString(out, oldShareType);
+                putString(out, shareID);
+                putString(out, shareType);
+                out.putInt(count);
+                break;
+            case PREPARE_SWAP:
+                putString(out, buyerID);
+                putString(out, shareID);
+                putString(out, shareType);
+                out.putInt(count);
+                break;
+            case COMMIT_SWAP:
+            case ABORT_SWAP:
+                out.putLong(holdId);
+                break;
+            case GET_SHARES:
+                putString(out, buyerID);
+                break;
+            case REPLY:
+                putString(out, text);
+                return;
+            default:
+                throw new IllegalStateException("Unknown command " + command);
+        }
+        if (traceId != null) {
+            putString(out, traceId);
+        }
+    }
+
+    // Reads one whole datagram from in, in whichever format it was sent. Throws
+    // IllegalArgumentException for anything malformed.
+    public void decode(ByteBuffer in) {
+        if (in.remaining() < 2 || in.getShort(in.position()) != MAGIC) {
+            binary = false;
+            parseText(StandardCharsets.UTF_8.decode(in).toString());
+            return;
+        }
+        binary = true;
+        traceId = null;
+        try {
+            in.getShort();
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported protocol version " + version);
+            }
+            command = in.get();
+            requestId = in.getLong();
+            switch (command) {
+                case LIST_AVAILABILITY:
+                    shareType = getString(in);
+                    break;
+                case CHECK_SWAP_AVAILABILITY:
+                    shareID = getString(in);
+                    shareType = getString(in);
+                    count = in.getInt();
+                    break;
+                case EXECUTE_SWAP:
+                    buyerID = getString(in);
+                    oldShareID = getString(in);
+                    oldShareType = getString(in);
+                    shareID = getString(in);
+                    shareType = getString(in);
+                    count = in.getInt();
+                    break;
+                case PREPARE_SWAP:
+                    buyerID = getString(in);
+                    shareID = getString(in);
+                    shareType = getString(in);
+                    count = in.getInt();
+                    break;
+                case COMMIT_SWAP:
+                case ABORT_SWAP:
+                    holdId = in.getLong();
+                    break;
+                case GET_SHARES:
+                    buyerID = getString(in);
+                    break;
+                case REPLY:
+                    text = getString(in);
+                    return;
+                default:
+                    throw new IllegalArgumentException("Unknown command " + command);
+            }
+            if (in.hasRemaining()) {
+                traceId = getString(in);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+    }
+
+    // Names commands the way the text format spells them
+    static String commandName(byte command) {
+        switch (command) {
+            case LIST_AVAILABILITY:
+                return "LIST_AVAILABILITY";
+            case CHECK_SWAP_AVAILABILITY:
+                return "CHECK_SWAP_AVAILABILITY";
+            case EXECUTE_SWAP:
+                return "EXECUTE_SWAP";
+            case PREPARE_SWAP:
+                return "PREPARE_SWAP";
+            case COMMIT_SWAP:
+                return "COMMIT_SWAP";
+            case ABORT_SWAP:
+                return "ABORT_SWAP";
+            case GET_SHARES:
+                return "GET_SHARES";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    // The compatibility format: the command name and its fields separated by spaces
+    String toText() {
+        switch (command) {
+            case LIST_AVAILABILITY:
+                return "LIST_AVAILABILITY " + shareType;
+            case CHECK_SWAP_AVAILABILITY:
+                return "CHECK_SWAP_AVAILABILITY " + shareID + " " + shareType + " " + count;
+            case EXECUTE_SWAP:
+                return "EXECUTE_SWAP " + buyerID + " " + oldShareID + " " + oldShareType + " "
+                        + shareID + " " + shareType + " " + count;
+            case PREPARE_SWAP:
+                return "PREPARE_SWAP " + buyerID + " " + shareID + " " + shareType + " " + count;
+            case COMMIT_SWAP:
+                return "COMMIT_SWAP " + holdId;
+            case ABORT_SWAP:
+                return "ABORT_SWAP " + holdId;
+            case GET_SHARES:
+                return "GET_SHARES " + buyerID;
+            default:
+                return text;
+        }
+    }
+
+    private void parseText(String message) {
+        String[] parts = message.trim().split(" ");
+        requestId = 0;
+        traceId = null;
+        if (parts.length > 1 && parts[parts.length - 1].startsWith("TRACE=")) {
+            traceId = parts[parts.length - 1].substring("TRACE=".length());
+        }
+        switch (parts[0]) {
+            case "LIST_AVAILABILITY":
+                requireParts(parts, 2);
+                command = LIST_AVAILABILITY;
+                shareType = parts[1];
+                break;
+            case "CHECK_SWAP_AVAILABILITY":
+                requireParts(parts, 4);
+                command = CHECK_SWAP_AVAILABILITY;
+                shareID = parts[1];
+                shareType = parts[2];
+                count = Integer.parseInt(parts[3]);
+                break;
+            case "EXECUTE_SWAP":
+                requireParts(parts, 7);
+                command = EXECUTE_SWAP;
+                buyerID = parts[1];
+                oldShareID = parts[2];
+                oldShareType = parts[3];
+                shareID = parts[4];
+                shareType = parts[5];
+                count = Integer.parseInt(parts[6]);
+                break;
+            case "PREPARE_SWAP":
+                requireParts(parts, 5);
+                command = PREPARE_SWAP;
+                buyerID = parts[1];
+                shareID = parts[2];
+                shareType = parts[3];
+                count = Integer.parseInt(parts[4]);
+                break;
+            case "COMMIT_SWAP":
+            case "ABORT_SWAP":
+                requireParts(parts, 2);
+                command = parts[0].equals("COMMIT_SWAP") ? COMMIT_SWAP : ABORT_SWAP;
+                holdId = Long.parseLong(parts[1]);
+                break;
+            case "GET_SHARES":
+                requireParts(parts, 2);
+                command = GET_SHARES;
+                buyerID = parts[1];
+                break;
+            default:
+                // Anything else is taken to be a reply
+                command = REPLY;
+                text = message.trim();
+        }
+    }
+
+    private static void requireParts(String[] parts, int count) {
+        if (parts.length < count) {
+            throw new IllegalArgumentException("Expected " + count + " fields for " + parts[0]);
+        }
+    }
+
+    // Encodes straight into out without an intermediate byte[]
+    private static void putString(ByteBuffer out, String value) {
+        int lengthAt = out.position();
+        out.putShort((short) 0);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        int length = out.position() - lengthAt - 2;
+        if (length > 0xFFFF) {
+            throw new IllegalArgumentException("String longer than 65535 bytes");
+        }
+        out.putShort(lengthAt, (short) length);
+    }
+
+    private String getString(ByteBuffer in) {
+        int length = Short.toUnsignedInt(in.getShort());
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated string");
+        }
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        int end = in.position() + length;
+        int n = 0;
+        while (in.position() < end) {
+            int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[n++] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+            } else {
+                chars[n++] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+            }
+        }
+        return new String(chars, 0, n);
+    }
+}
@@ -0,0 +1,208 @@
+package org.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs calls to other markets off the caller's thread and keeps track of them. At
+// most market.remote.maxInFlight calls are outstanding at once; a call beyond that
+// fails straight away instead of queueing behind a slow peer. A call's slot is
+// freed when it returns or when await gives up on it and cancels it, so a hung
+// peer cannot use up every slot; the call itself runs on until its port's own
+// timeout ends it, and is listed in flight until then. Each finished
+// call is timed as remote_call under its protocol and peer, e.g. "UDP London",
+// whose timer is looked up once per pair, and belongs to the trace that was
+// current when it was submitted; submit runs the call under that trace.
+public class RemoteCallTracker {
+
+    // Thrown by await when the call did not finish in time; it may still succeed
+    public static class NoReplyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NoReplyException(String message) {
+            super(message);
+        }
+    }
+
+    private static class InFlight {
+        final String protocol;
+        final String peer;
+        final String description;
+        final MetricsRegistry.Timer timer;
+        final long startedNanos = System.nanoTime();
+        final Trace trace = Trace.ENABLED ? Trace.current() : null;
+
+        InFlight(String protocol, String peer, String description, MetricsRegistry.Timer timer) {
+            this.protocol = protocol;
+            this.peer = peer;
+            this.description = description;
+            this.timer = timer;
+        }
+    }
+
+    private final int maxInFlight = Integer.getInteger("market.remote.maxInFlight", 64);
+    private final Semaphore permits = new Semaphore(maxInFlight);
+    private final Map<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ExecutorService executor;
+    private final MetricsRegistry metrics;
+    // remote_call timers by protocol, then peer
+    private final Map<String, Map<String, MetricsRegistry.Timer>> timers = new ConcurrentHashMap<>();
+
+    public RemoteCallTracker(String city, MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "remote-call-" + city);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public <T> CompletableFuture<T> submit(String protocol, String peer, String description, Callable<T> call) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Too many remote operations in flight (" + maxInFlight + ")"));
+        }
+        long id = nextId.incrementAndGet();
+        InFlight tracked = new InFlight(protocol, peer, description, timer(protocol, peer));
+        inFlight.put(id, tracked);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // Whichever comes first, the call completing or a caller cancelling
+        future.whenComplete((result, e) -> permits.release());
+        try {
+            executor.execute(() -> {
+                boolean success = false;
+                Trace previous = Trace.resume(tracked.trace);
+                try {
+                    T result = call.call();
+                    completed.increment();
+                    success = true;
+                    future.complete(result);
+                } catch (Throwable e) {
+                    failed.increment();
+                    future.completeExceptionally(e);
+                } finally {
+                    Trace.resume(previous);
+                    tracked.timer.record(tracked.trace, tracked.startedNanos, success);
+                    inFlight.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Counts a call that is already asynchronous, such as a UDPPeerClient request,
+    // against the same limit; its slot is freed when the returned future completes,
+    // including by being cancelled
+    public <T> CompletableFuture<T> track(String protocol, String peer, String description, Callable<CompletableFuture<T>> call) {
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Too many remote operations in flight (" + maxInFlight + ")"));
+        }
+        long id = nextId.incrementAndGet();
+        InFlight tracked = new InFlight(protocol, peer, description, timer(protocol, peer));
+        inFlight.put(id, tracked);
+        CompletableFuture<T> started;
+        try {
+            started = call.call();
+        } catch (Exception e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        // The call's own future is handed back, not a dependent of it: a dependent
+        // that was cancelled would skip this bookkeeping and leak the slot
+        started.whenComplete((result, e) -> {
+            if (e == null) {
+                completed.increment();
+            } else {
+                failed.increment();
+            }
+            tracked.timer.record(tracked.trace, tracked.startedNanos, e == null);
+            inFlight.remove(id);
+            permits.release();
+        });
+        return started;
+    }
+
+    // Waits up to timeoutMillis for future and turns every way it can fail into
+    // an IOException carrying a readable message. A call that runs out of time is
+    // cancelled, which frees its slot.
+    public static <T> T await(CompletableFuture<T> future, long timeoutMillis) throws IOException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new NoReplyException("no reply within " + timeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+    }
+
+    private MetricsRegistry.Timer timer(String protocol, String peer) {
+        Map<String, MetricsRegistry.Timer> byPeer = timers.get(protocol);
+        if (byPeer == null) {
+            byPeer = timers.computeIfAbsent(protocol, p -> new ConcurrentHashMap<>());
+        }
+        MetricsRegistry.Timer timer = byPeer.get(peer);
+        return timer != null ? timer : byPeer.computeIfAbsent(peer, p -> metrics.timer("remote_call", protocol + " " + p));
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    // One line per outstanding call with how long it has been running
+    public List<String> describeInFlight() {
+        List<String> lines = new ArrayList<>();
+        long now = System.nanoTime();
+        for (InFlight call : inFlight.values()) {
+            lines.add(call.protocol + " " + call.peer + " " + call.description + " (" + (now - call.startedNanos) / 1_000_000 + " ms)");
+        }
+        return lines;
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public void resetCounts() {
+        completed.reset();
+        failed.reset();
+        rejected.reset();
+    }
+}
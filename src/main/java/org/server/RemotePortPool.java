@@ -0,0 +1,221 @@
+package org.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.handler.Handler;
+
+// Ready JAX-WS proxies for calling other markets. The Service, and with it the
+// remote WSDL, is built once per market. Ports are not thread-safe, so every call
+// borrows one exclusively and hands it back afterwards; at most
+// market.portPool.size ports per market exist at a time and a caller that finds
+// them all in use waits up to market.portPool.checkoutTimeoutMs. A port whose call
+// threw is discarded, as is one left idle longer than market.portPool.maxIdleMs.
+// -Dmarket.portPool=false restores a new Service and port per call. While tracing
+// is on, ports pass the current correlation ID on in a SOAP header. Every port
+// gives up on a request after market.remote.timeoutMs, the same deadline callers
+// wait for, and on connecting after market.remote.connectTimeoutMs, so a hung peer
+// cannot keep a port, and its slot, forever.
+public class RemotePortPool<T> {
+
+    // The market answered but does not publish this service; no call was made.
+    // A market that could not be reached fails with a plain IOException instead.
+    public static class NoServiceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NoServiceException(String message) {
+            super(message);
+        }
+    }
+
+    private static class IdlePort<T> {
+        final T port;
+        final long idleSince;
+
+        IdlePort(T port) {
+            this.port = port;
+            this.idleSince = System.nanoTime();
+        }
+    }
+
+    private class MarketPorts {
+        final String market;
+        final Semaphore permits = new Semaphore(maxSize);
+        final BlockingQueue<IdlePort<T>> idle = new ArrayBlockingQueue<>(maxSize);
+        private Service service;
+
+        MarketPorts(String market) {
+            this.market = market;
+        }
+
+        // Built on first use rather than at startup so a peer that starts later is
+        // still reachable, and rebuilt if that first attempt failed
+        synchronized Service service() throws IOException {
+            if (service == null) {
+                service = createService(market);
+            }
+            return service;
+        }
+    }
+
+    private final Class<T> portType;
+    private final QName serviceName;
+    private final Function<String, String> urls;
+    private final boolean pooling = !"false".equalsIgnoreCase(System.getProperty("market.portPool"));
+    private final int maxSize = Integer.getInteger("market.portPool.size", 8);
+    private final long checkoutTimeoutMillis = Long.getLong("market.portPool.checkoutTimeoutMs", 5000);
+    private final long maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("market.portPool.maxIdleMs", 60_000));
+    private final int requestTimeoutMillis = Integer.getInteger("market.remote.timeoutMs", 10_000);
+    private final int connectTimeoutMillis = Integer.getInteger("market.remote.connectTimeoutMs",
+            Math.min(2000, requestTimeoutMillis));
+    private final Map<String, MarketPorts> markets = new ConcurrentHashMap<>();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public RemotePortPool(Class<T> portType, QName serviceName) {
+        this(portType, serviceName, MarketDirectory::webServiceUrl);
+    }
+
+    // urls maps a market to its endpoint address, or null if it is unknown
+    public RemotePortPool(Class<T> portType, QName serviceName, Function<String, String> urls) {
+        this.portType = portType;
+        this.serviceName = serviceName;
+        this.urls = urls;
+    }
+
+    // Runs call on a port of market's endpoint. Exceptions from the call propagate
+    // after the port has been dropped from the pool.
+    public <R> R call(String market, Function<T, R> call) throws IOException {
+        if (!pooling) {
+            return call.apply(createPort(createService(market)));
+        }
+        MarketPorts ports = markets.computeIfAbsent(market, MarketPorts::new);
+        try {
+            if (!ports.permits.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("No free connection to " + market + " within " + checkoutTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to " + market);
+        }
+        T port = null;
+        boolean healthy = false;
+        try {
+            port = takeIdle(ports);
+            if (port == null) {
+                port = createPort(ports.service());
+                created.increment();
+            }
+            R result = call.apply(port);
+            healthy = true;
+            return result;
+        } finally {
+            if (port != null && (!healthy || !ports.idle.offer(new IdlePort<>(port)))) {
+                discarded.increment();
+            }
+            ports.permits.release();
+        }
+    }
+
+    private T takeIdle(MarketPorts ports) {
+        IdlePort<T> idle;
+        while ((idle = ports.idle.poll()) != null) {
+            if (System.nanoTime() - idle.idleSince < maxIdleNanos) {
+                return idle.port;
+            }
+            discarded.increment();
+        }
+        return null;
+    }
+
+    private T createPort(Service service) {
+        T port = service.getPort(portType);
+        BindingProvider provider = (BindingProvider) port;
+        Map<String, Object> context = provider.getRequestContext();
+        context.put("com.sun.xml.ws.connect.timeout", connectTimeoutMillis);
+        context.put("com.sun.xml.ws.request.timeout", requestTimeoutMillis);
+        if (Trace.ENABLED) {
+            // The JAX-WS API types the handler chain as a raw List<Handler>
+            @SuppressWarnings("rawtypes")
+            List<Handler> chain = new ArrayList<>(provider.getBinding().getHandlerChain());
+            chain.add(new TraceHandler());
+            provider.getBinding().setHandlerChain(chain);
+        }
+        return port;
+    }
+
+    private Service createService(String market) throws IOException {
+        String url = urls.apply(market);
+        if (url == null) {
+            throw new IOException("Unknown market " + market);
+        }
+        URL wsdl = new URL(url + "?wsdl");
+        checkPublished(wsdl, url);
+        try {
+            return Service.create(wsdl, serviceName);
+        } catch (WebServiceException e) {
+            throw new IOException("Could not describe " + serviceName.getLocalPart() + " at " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Fetches the WSDL first, because Service.create fails the same way whether
+    // the peer is down or just doesn't publish this service. One that doesn't
+    // answers 404, or the WSDL of another service on a shorter path.
+    private void checkPublished(URL wsdl, String url) throws IOException {
+        URLConnection connection = wsdl.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            return;
+        }
+        HttpURLConnection http = (HttpURLConnection) connection;
+        http.setConnectTimeout(connectTimeoutMillis);
+        http.setReadTimeout(requestTimeoutMillis);
+        try {
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new NoServiceException("No " + serviceName.getLocalPart() + " at " + url + " (HTTP 404)");
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Describing " + url + " failed with HTTP " + status);
+            }
+            String document;
+            try (InputStream in = http.getInputStream()) {
+                document = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (!document.contains("\"" + serviceName.getLocalPart() + "\"")) {
+                throw new NoServiceException("No " + serviceName.getLocalPart() + " in the WSDL at " + url);
+            }
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    public int getIdleCount(String market) {
+        MarketPorts ports = markets.get(market);
+        return ports == null ? 0 : ports.idle.size();
+    }
+}
@@ -0,0 +1,91 @@
+package org.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Rendered responses keyed by share type or buyer ID. Every mutation bumps the
+// keys it touched after the change is visible, which replaces their response
+// with a marker stamped with the time of the bump. A render is stamped with the
+// time read before it started and is only stored over an older stamp, so one that
+// raced a mutation is simply rebuilt on the next read. Stamps are nanoTime, which
+// needs no shared counter on the trade path; equal stamps count as a race.
+//
+// Responses and markers share maxEntries. Evicting either one raises a floor, and
+// a render that started at or below it is served but not stored, since it may
+// have missed a bump whose marker is gone.
+public class ResponseCache {
+
+    private static class Entry {
+        final long stamp;
+        // Null for a key bumped since its response was last stored
+        final String text;
+
+        Entry(long stamp, String text) {
+            this.stamp = stamp;
+            this.text = text;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong evictedUpTo = new AtomicLong(Long.MIN_VALUE);
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void bump(String key) {
+        long stamp = System.nanoTime();
+        makeRoom(key);
+        entries.compute(key, (k, current) -> current != null && current.stamp > stamp ? current : new Entry(stamp, null));
+    }
+
+    public String get(String key, Supplier<String> render) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.text != null) {
+            hits.increment();
+            return entry.text;
+        }
+        misses.increment();
+        long readAt = System.nanoTime();
+        String text = render.get();
+        if (readAt <= evictedUpTo.get()) {
+            return text;
+        }
+        makeRoom(key);
+        entries.compute(key, (k, current) -> current != null && current.stamp >= readAt ? current : new Entry(readAt, text));
+        return text;
+    }
+
+    // Drops an arbitrary entry rather than grow past the limit
+    private void makeRoom(String key) {
+        if (entries.size() < maxEntries || entries.containsKey(key)) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        if (iterator.hasNext()) {
+            Map.Entry<String, Entry> victim = iterator.next();
+            if (entries.remove(victim.getKey(), victim.getValue())) {
+                evictedUpTo.accumulateAndGet(victim.getValue().stamp, Math::max);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
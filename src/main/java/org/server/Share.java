@@ -1,14 +1,16 @@
 package org.server;
 
 import java.io.Serializable;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Share implements Serializable {
 
     private final String shareID;
     private final String shareType;
-    private int availableCapacity;
+    // Only changed through tryReserve/release, so it can never go negative
+    private final AtomicInteger availableCapacity;
     private final int totalCapacity;
     private final Set<String> buyers;
     private final String originMarket;
@@ -16,9 +18,19 @@ public class Share implements Serializable {
     public Share(String shareID, String shareType, int availableCapacity, String originMarket) {
         this.shareID = shareID;
         this.shareType = shareType;
-        this.availableCapacity = availableCapacity;
+        this.availableCapacity = new AtomicInteger(availableCapacity);
         this.totalCapacity = availableCapacity;
-        this.buyers = new HashSet<>();
+        this.buyers = ConcurrentHashMap.newKeySet();
+        this.originMarket = originMarket;
+    }
+
+    // Used when restoring a share whose capacity has already been partly sold
+    Share(String shareID, String shareType, int availableCapacity, int totalCapacity, String originMarket) {
+        this.shareID = shareID;
+        this.shareType = shareType;
+        this.availableCapacity = new AtomicInteger(availableCapacity);
+        this.totalCapacity = totalCapacity;
+        this.buyers = ConcurrentHashMap.newKeySet();
         this.originMarket = originMarket;
     }
 
@@ -31,15 +43,33 @@ public class Share implements Serializable {
     }
 
     public int getAvailableCapacity() {
-        return availableCapacity;
+        return availableCapacity.get();
+    }
+
+    // Takes count units of capacity in one step, or nothing if fewer are available.
+    public boolean tryReserve(int count) {
+        if (count < 0) {
+            return false;
+        }
+        while (true) {
+            int available = availableCapacity.get();
+            if (available < count) {
+                return false;
+            }
+            if (availableCapacity.compareAndSet(available, available - count)) {
+                return true;
+            }
+        }
     }
 
-    public void reduceCapacity(int count) {
-        this.availableCapacity -= count;
+    // Hands back capacity taken by tryReserve.
+    public void release(int count) {
+        availableCapacity.addAndGet(count);
     }
 
-    public void increaseCapacity(int count) {
-        this.availableCapacity += count;
+    // Journal replay only: applies a logged change without the availability check.
+    void adjustCapacity(int delta) {
+        availableCapacity.addAndGet(delta);
     }
 
     public void addBuyer(String buyerID) {
@@ -72,7 +102,7 @@ public class Share implements Serializable {
 
     @Override
     public String toString() {
-        return "[Share ID: " + shareID + ", Type: " + shareType + ", Available: " + availableCapacity +
+        return "[Share ID: " + shareID + ", Type: " + shareType + ", Available: " + availableCapacity.get() +
                 (originMarket != null ? ", Market: " + originMarket : "") + "]";
     }
 }
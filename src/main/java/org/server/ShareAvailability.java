@@ -0,0 +1,52 @@
+package org.server;
+
+// One share's remaining capacity, as listShareAvailability reports it.
+public class ShareAvailability {
+
+    private String shareID;
+    private String shareType;
+    private int available;
+    private String originMarket;
+
+    public ShareAvailability() {
+    }
+
+    public ShareAvailability(String shareID, String shareType, int available, String originMarket) {
+        this.shareID = shareID;
+        this.shareType = shareType;
+        this.available = available;
+        this.originMarket = originMarket;
+    }
+
+    public String getShareID() {
+        return shareID;
+    }
+
+    public void setShareID(String shareID) {
+        this.shareID = shareID;
+    }
+
+    public String getShareType() {
+        return shareType;
+    }
+
+    public void setShareType(String shareType) {
+        this.shareType = shareType;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public void setAvailable(int available) {
+        this.available = available;
+    }
+
+    public String getOriginMarket() {
+        return originMarket;
+    }
+
+    public void setOriginMarket(String originMarket) {
+        this.originMarket = originMarket;
+    }
+}
@@ -21,6 +21,9 @@ public interface ShareMarketServer{
     @WebMethod
     String listShareAvailability(@WebParam(name = "shareType")String shareType);
 
+    @WebMethod
+    String listGlobalShareAvailability(@WebParam(name = "shareType")String shareType);
+
     @WebMethod
     String purchaseRemoteShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
                                @WebParam(name = "shareType")String shareType, @WebParam(name = "shareCount")int shareCount,
@@ -40,11 +43,19 @@ public interface ShareMarketServer{
     @WebMethod
     String getShares(@WebParam(name = "buyerID")String buyerID);
 
+    // The buyer's holdings in every market, gathered by the market called
+    @WebMethod
+    String getGlobalShares(@WebParam(name = "buyerID")String buyerID);
+
     @WebMethod
     String sellShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
                      @WebParam(name = "shareType")String shareType,
                      @WebParam(name = "shareCount")int shareCount);
 
+    // Applies the orders in order for one buyer; each gets its own result
+    @WebMethod
+    TradeResult[] executeOrders(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "orders")TradeOrder[] orders);
+
     @WebMethod
     String swapShares(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "oldShareID")String oldShareID,
                       @WebParam(name = "oldShareType")String oldShareType, @WebParam(name = "newShareID")String newShareID,
@@ -1,44 +1,153 @@
 package org.server;
 
 import javax.xml.namespace.QName;
-import javax.xml.ws.Service;
-import java.net.URL;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.jws.WebService;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.audit.AuditLogger;
 
 @WebService(endpointInterface = "org.server.ShareMarketServer")
 public class ShareMarketServerImpl implements ShareMarketServer{
 
     private final String city;
     private final int udpPort;
-    private final Map<String, Map<String, Share>> shareDatabase = new HashMap<>();
-    private final Map<String, Integer> remoteServers = new HashMap<>();
-    private final Map<String, Map<String, Integer>> buyerHoldings = new HashMap<>();
+    private final Map<String, Map<String, Share>> shareDatabase = new ConcurrentHashMap<>();
+    private final Map<String, Integer> remoteServers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Integer>> buyerHoldings = new ConcurrentHashMap<>();
+
+    // Share capacity is reserved and released lock-free through Share.tryReserve, so
+    // trades only take the buyer stripe. Share stripes guard adding and removing
+    // shares. Lock ordering: the journal's mutation lock, then a buyer stripe, then
+    // a share stripe; no path holds two stripes of the same kind, since two keys may
+    // hash onto one stripe. No lock is held across a remote call; those run on
+    // remoteCalls, which bounds how many are in flight.
+    private final MetricsRegistry metrics;
+    private final MetricsRegistry.Timer mutationWaits;
+    // One timer per operation, looked up once rather than per call
+    private final MetricsRegistry.Timer addTimer;
+    private final MetricsRegistry.Timer getSharesTimer;
+    private final MetricsRegistry.Timer purchaseTimer;
+    private final MetricsRegistry.Timer executeTimer;
+    private final MetricsRegistry.Timer removeTimer;
+    private final MetricsRegistry.Timer sellTimer;
+    private final MetricsRegistry.Timer availabilityTimer;
+    private final MetricsRegistry.Timer globalAvailabilityTimer;
+    private final MetricsRegistry.Timer globalSharesTimer;
+    private final MetricsRegistry.Timer purchaseRemoteTimer;
+    private final MetricsRegistry.Timer sellRemoteTimer;
+    private final MetricsRegistry.Timer swapTimer;
+    private final StripedLock buyerLocks;
+    private final StripedLock shareLocks;
+    private final AuditLogger auditLog;
+    // Set once by enablePersistence before the market is published; null means off
+    private MarketJournal journal;
+    // Buyers not yet in buyerHoldings are faulted in from here on first use
+    private volatile MappedSnapshot snapshotView;
+    // Rendered listShareAvailability results by share type and getShares results by
+    // buyer; every change to capacity or holdings bumps the affected keys
+    private final ResponseCache availabilityCache = new ResponseCache(64);
+    private final ResponseCache holdingsCache = new ResponseCache(Integer.getInteger("cache.maxBuyers", 100_000));
+    // How long a fan-out query waits for the slowest peer
+    private final int udpTimeoutMillis = Integer.getInteger("market.udp.timeoutMs", 2000);
+    private final RemoteCallTracker remoteCalls;
+    // Peers understand both; text is only for talking to markets not yet upgraded
+    private final boolean binaryPeerProtocol = !"text".equalsIgnoreCase(System.getProperty("market.udp.protocol"));
+    // Capacity held here for swaps prepared by other markets, by hold id. Holds are
+    // not journaled: a restart drops them, which is the same as letting them expire.
+    private final Map<Long, SwapHold> swapHolds = new ConcurrentHashMap<>();
+    // Ids of recently committed holds, so a late ABORT can say the commit happened
+    private final Map<Long, Boolean> committedHolds = new ConcurrentHashMap<>();
+    private final AtomicLong nextHoldId = new AtomicLong(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2));
+    private final long holdTtlMillis = Long.getLong("market.swap.holdTtlMs", 5000);
+    private final LongAdder expiredHolds = new LongAdder();
+    private static final TimingWheel HOLD_EXPIRY = new TimingWheel("swap-hold-expiry", 50, 512);
+    // Whether swaps probe all peers at once (market.swap.probe=parallel, the default)
+    private final boolean parallelSwapProbe = !"sequential".equalsIgnoreCase(System.getProperty("market.swap.probe"));
+    // One long-lived channel per peer for binary requests, opened on first use
+    private final Map<String, UDPPeerClient> peerClients = new ConcurrentHashMap<>();
+    // Largest executeOrders batch; a batch holds its buyer's stripe throughout
+    private final int maxBatchOrders = Integer.getInteger("market.batch.maxOrders", 1000);
+    // How long a cross-market SOAP call may take before the caller gives up on it
+    private final int remoteTimeoutMillis = Integer.getInteger("market.remote.timeoutMs", 10_000);
+    // Holdings taken out by swaps that are waiting on a peer, by buyer and share key
+    private final Map<String, Map<String, Integer>> pendingSwapOuts = new ConcurrentHashMap<>();
+    // Remote trades go through the peers' version 2 endpoints, whose status codes
+    // say whether the trade happened, and through version 1 for a peer without one.
+    // Such a peer is not asked for its version 2 endpoint again for a minute.
+    private final RemotePortPool<ShareMarketServerV2> remotePorts =
+            new RemotePortPool<>(ShareMarketServerV2.class, new QName("http://server.org/v2/", "ShareMarketServerV2Service"),
+                    MarketDirectory::webServiceV2Url);
+    private final RemotePortPool<ShareMarketServer> remoteV1Ports =
+            new RemotePortPool<>(ShareMarketServer.class, new QName("http://server.org/", "ShareMarketServerImplService"));
+    private final Map<String, Long> noV2Until = new ConcurrentHashMap<>();
+    private static final long V2_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
 
     public ShareMarketServerImpl(String city, int udpPort) {
         this.city = city;
         this.udpPort = udpPort;
+        this.metrics = new MetricsRegistry(city);
+        this.mutationWaits = metrics.timer("lock_wait", "mutation");
+        this.addTimer = metrics.timer("operation", "addShare");
+        this.getSharesTimer = metrics.timer("operation", "getShares");
+        this.purchaseTimer = metrics.timer("operation", "purchaseShare");
+        this.executeTimer = metrics.timer("operation", "executeOrders");
+        this.removeTimer = metrics.timer("operation", "removeShare");
+        this.sellTimer = metrics.timer("operation", "sellShare");
+        this.availabilityTimer = metrics.timer("operation", "listShareAvailability");
+        this.globalAvailabilityTimer = metrics.timer("operation", "listGlobalShareAvailability");
+        this.globalSharesTimer = metrics.timer("operation", "getGlobalShares");
+        this.purchaseRemoteTimer = metrics.timer("operation", "purchaseRemoteShare");
+        this.sellRemoteTimer = metrics.timer("operation", "sellRemoteShare");
+        this.swapTimer = metrics.timer("operation", "swapShares");
+        this.buyerLocks = new StripedLock(64, metrics.timer("lock_wait", "buyer"));
+        this.shareLocks = new StripedLock(64, metrics.timer("lock_wait", "share"));
+        this.auditLog = AuditLogger.forFile("logs" + city + "_Server.log", "Status");
+        this.remoteCalls = new RemoteCallTracker(city, metrics);
         initializeShareTypes();
     }
 
     private void initializeShareTypes() {
-        shareDatabase.put("Equity", new HashMap<>());
-        shareDatabase.put("Bonus", new HashMap<>());
-        shareDatabase.put("Dividend", new HashMap<>());
+        shareDatabase.put("Equity", new ConcurrentHashMap<>());
+        shareDatabase.put("Bonus", new ConcurrentHashMap<>());
+        shareDatabase.put("Dividend", new ConcurrentHashMap<>());
     }
 
     public void addRemoteServer(String city, int port) {
         remoteServers.put(city, port);
+        UDPPeerClient previous = peerClients.remove(city);
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                System.err.println("Closing UDP client for " + city + " failed: " + e.getMessage());
+            }
+        }
     }
 
     public Map<String, Map<String, Share>> getShareDatabase() {
@@ -49,134 +158,738 @@ public class ShareMarketServerImpl implements ShareMarketServer{
         return this.buyerHoldings;
     }
 
-    private void logAction(String requestType, String requestParams, boolean success) {
-        try {
-            FileWriter writer = new FileWriter("logs" + city + "_Server.log", true);
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-            writer.write("[" + timestamp + "] " + requestType + " | Params: " + requestParams + " | Status: " + (success ? "Successfully Completed" : "Failed") + "\n");
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public AuditLogger getAuditLog() {
+        return this.auditLog;
+    }
+
+    // Recovers the market from directory and journals every later mutation there.
+    // Call before the endpoint is published.
+    public void enablePersistence(String directory) throws IOException {
+        this.journal = MarketJournal.open(this, Paths.get(directory));
+    }
+
+    public MarketJournal getJournal() {
+        return this.journal;
+    }
+
+    public String getCity() {
+        return this.city;
+    }
+
+    public ResponseCache getAvailabilityCache() {
+        return this.availabilityCache;
+    }
+
+    public ResponseCache getHoldingsCache() {
+        return this.holdingsCache;
+    }
+
+    public RemotePortPool<ShareMarketServerV2> getRemotePorts() {
+        return this.remotePorts;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return this.metrics;
+    }
+
+    public RemoteCallTracker getRemoteCalls() {
+        return this.remoteCalls;
+    }
+
+    public Map<String, UDPPeerClient> getPeerClients() {
+        return this.peerClients;
+    }
+
+    // Read by snapshots under the journal's write lock
+    Map<String, Map<String, Integer>> getPendingSwapOuts() {
+        return this.pendingSwapOuts;
+    }
+
+    Map<Long, SwapHold> getSwapHolds() {
+        return this.swapHolds;
+    }
+
+    public int getSwapHoldCount() {
+        return this.swapHolds.size();
+    }
+
+    public long getExpiredHoldCount() {
+        return this.expiredHolds.sum();
+    }
+
+    public MappedSnapshot getSnapshotView() {
+        return this.snapshotView;
+    }
+
+    // Swaps in the view of the latest snapshot. Every buyer in the old view has
+    // either been faulted in or carried over unchanged into the new one.
+    void attachSnapshot(MappedSnapshot view) {
+        this.snapshotView = view;
+    }
+
+    // Journal hooks; all of them are no-ops while persistence is off. Entering a
+    // section while a snapshot is pending is timed as a lock wait.
+    private void beginMutation() {
+        if (journal != null) {
+            if (!journal.isMutationBlocked()) {
+                journal.beginMutation();
+                return;
+            }
+            long started = System.nanoTime();
+            journal.beginMutation();
+            mutationWaits.record(started, true);
         }
     }
 
+    private void beginNestedMutation() {
+        if (journal != null) {
+            if (!journal.isMutationBlocked()) {
+                journal.beginNestedMutation();
+                return;
+            }
+            long started = System.nanoTime();
+            journal.beginNestedMutation();
+            mutationWaits.record(started, true);
+        }
+    }
+
+    private void endMutation() {
+        if (journal != null) {
+            journal.endMutation();
+        }
+    }
+
+    // True when there was nothing to save (ticket 0) or it was saved
+    private boolean awaitDurable(long ticket) {
+        return ticket == 0 || journal.awaitDurable(ticket);
+    }
+
+    // Refuses a change up front once the journal can no longer save anything
+    private OperationResult journalFailure(String requestType, String requestParams) {
+        if (journal == null || !journal.isFailed()) {
+            return null;
+        }
+        return notSaved(requestType, requestParams);
+    }
+
+    private OperationResult notSaved(String requestType, String requestParams) {
+        System.err.println(city + ": " + requestType + " not saved, the journal has failed (" + requestParams + ")");
+        logAction(requestType, requestParams, false);
+        return new OperationResult(StatusCode.REMOTE_FAILURE, requestType + " failed: the market could not save it");
+    }
+
+    // A SOAP argument the client left out arrives as null, which the concurrent
+    // maps reject, so every entry point answers it before touching them
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private void logAction(String requestType, String requestParams, boolean success) {
+        auditLog.log(requestType, requestParams, success ? "Successfully Completed" : "Failed");
+    }
+
     @Override
-    public synchronized String addShare(String shareID, String shareType, int availableCapacity) {
-        shareDatabase.putIfAbsent(shareType, new HashMap<>());
-        if (shareDatabase.get(shareType).containsKey(shareID)) {
+    public String addShare(String shareID, String shareType, int availableCapacity) {
+        return add(shareID, shareType, availableCapacity).getMessage();
+    }
+
+    OperationResult add(String shareID, String shareType, int availableCapacity) {
+        long started = System.nanoTime();
+        return addTimer.record(started, doAdd(shareID, shareType, availableCapacity));
+    }
+
+    private OperationResult doAdd(String shareID, String shareType, int availableCapacity) {
+        String shareKey = shareType + "-" + shareID;
+        if (isBlank(shareID) || isBlank(shareType)) {
             logAction("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType, false);
-            return "Share already exists with ID " + shareID + " and Type " + shareType;
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Share ID and type are required: " + shareKey);
         }
+        OperationResult refused = journalFailure("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType);
+        if (refused != null) {
+            return refused;
+        }
+        long ticket = 0;
+        beginMutation();
+        shareLocks.lock(shareKey);
+        try {
+            Map<String, Share> sharesOfType = shareDatabase.computeIfAbsent(shareType, type -> new ConcurrentHashMap<>());
+            if (sharesOfType.containsKey(shareID)) {
+                logAction("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType, false);
+                return new OperationResult(StatusCode.ALREADY_EXISTS, "Share already exists with ID " + shareID + " and Type " + shareType);
+            }
+
+            if (!shareType.equalsIgnoreCase("equity") && !shareType.equalsIgnoreCase("bonus") && !shareType.equalsIgnoreCase("dividend")) {
+                logAction("Add Share", "ShareID: " + shareID + " , ShareType: "+ shareType, false);
+                return new OperationResult(StatusCode.INVALID_REQUEST, "Share not added: "+shareType + "-" +shareID);
+            }
 
-        if (shareType.equalsIgnoreCase("equity") || shareType.equalsIgnoreCase("bonus") || shareType.equalsIgnoreCase("dividend")) {
-            shareDatabase.get(shareType).put(shareID, new Share(shareID, shareType, availableCapacity, city));
-            logAction("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType + ", Capacity: " + availableCapacity, true);
-            return "Share added successfully: " + shareType + "-" + shareID;
+            sharesOfType.put(shareID, new Share(shareID, shareType, availableCapacity, city));
+            availabilityCache.bump(shareType);
+            if (journal != null) {
+                ticket = journal.append(MarketJournal.addShare(shareType, shareID, availableCapacity));
+            }
+        } finally {
+            shareLocks.unlock(shareKey);
+            endMutation();
+        }
+        if (!awaitDurable(ticket)) {
+            return notSaved("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType);
         }
+        logAction("Add Share", "ShareID: " + shareID + ", ShareType: " + shareType + ", Capacity: " + availableCapacity, true);
+        return OperationResult.ok("Share added successfully: " + shareKey);
+    }
 
-        logAction("Add Share", "ShareID: " + shareID + " , ShareType: "+ shareType, false);
-        return "Share not added: "+shareType + "-" +shareID;
+    private Share findShare(String shareType, String shareID) {
+        Map<String, Share> sharesOfType = shareDatabase.get(shareType);
+        return sharesOfType == null ? null : sharesOfType.get(shareID);
     }
 
     @Override
-    public synchronized String getShares(String buyerID) {
+    public String getShares(String buyerID) {
+        long started = System.nanoTime();
+        String shares = localShares(buyerID);
+        getSharesTimer.record(started, true);
+        return shares;
+    }
+
+    // Untimed, for getGlobalShares and peers' GET_SHARES, which are timed themselves
+    String localShares(String buyerID) {
+        if (isBlank(buyerID)) {
+            return "No shares found.";
+        }
+        return holdingsCache.get(buyerID, () -> renderShares(buyerID));
+    }
+
+    private String renderShares(String buyerID) {
         StringBuilder result = new StringBuilder();
-        if (buyerHoldings.containsKey(buyerID) && !buyerHoldings.get(buyerID).isEmpty()) {
-            for (Map.Entry<String, Integer> entry : buyerHoldings.get(buyerID).entrySet()) {
-                String[] shareParts = entry.getKey().split("-");
-                String shareType = shareParts[0];
-                String shareID = shareParts[1];
-                int count = entry.getValue();
-                result.append("Share: ").append(shareID)
-                        .append(", Type: ").append(shareType)
-                        .append(", Available: ").append(count).append("\n");
+        buyerLocks.lock(buyerID);
+        try {
+            Map<String, Integer> holdings = existingHoldings(buyerID);
+            if (holdings == null || holdings.isEmpty()) {
+                return "No shares found.";
+            }
+            for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
+                String key = entry.getKey();
+                int dash = key.indexOf('-');
+                result.append("Share: ").append(key, dash + 1, key.length())
+                        .append(", Type: ").append(key, 0, dash)
+                        .append(", Available: ").append(entry.getValue()).append("\n");
             }
-            return result.toString().trim();
+        } finally {
+            buyerLocks.unlock(buyerID);
         }
-        return "No shares found.";
+        return result.toString().trim();
+    }
+
+    List<Holding> holdings(String buyerID) {
+        long started = System.nanoTime();
+        List<Holding> result = new ArrayList<>();
+        if (isBlank(buyerID)) {
+            return result;
+        }
+        buyerLocks.lock(buyerID);
+        try {
+            Map<String, Integer> holdings = existingHoldings(buyerID);
+            if (holdings != null) {
+                for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
+                    String key = entry.getKey();
+                    int dash = key.indexOf('-');
+                    result.add(new Holding(key.substring(dash + 1), key.substring(0, dash), entry.getValue()));
+                }
+            }
+        } finally {
+            buyerLocks.unlock(buyerID);
+        }
+        getSharesTimer.record(started, true);
+        return result;
     }
 
 
     @Override
-    public synchronized String purchaseShare(String buyerID, String shareID, String shareType, int quantity) {
-        if (!shareDatabase.containsKey(shareType) || !shareDatabase.get(shareType).containsKey(shareID)) {
+    public String purchaseShare(String buyerID, String shareID, String shareType, int quantity) {
+        return purchase(buyerID, shareID, shareType, quantity).getMessage();
+    }
+
+    OperationResult purchase(String buyerID, String shareID, String shareType, int quantity) {
+        long started = System.nanoTime();
+        return purchaseTimer.record(started, doPurchase(buyerID, shareID, shareType, quantity));
+    }
+
+    private OperationResult doPurchase(String buyerID, String shareID, String shareType, int quantity) {
+        String uniqueKey = shareType + "-" + shareID;
+        if (isBlank(buyerID) || isBlank(shareID) || isBlank(shareType)) {
             logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, false);
-            return "Share not available: " + shareType + "-" + shareID;
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Share not available: " + uniqueKey);
         }
-        Share share = shareDatabase.get(shareType).get(shareID);
-        if (share.getAvailableCapacity() < quantity) {
-            logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, false);
-            return "Not enough shares available for " + shareType + "-" + shareID;
+        OperationResult refused = journalFailure("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType);
+        if (refused != null) {
+            return refused;
+        }
+        long ticket = 0;
+        beginMutation();
+        try {
+            Share share = findShare(shareType, shareID);
+            if (share == null) {
+                logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, false);
+                return new OperationResult(StatusCode.NOT_FOUND, "Share not available: " + uniqueKey);
+            }
+            // Check and take the capacity in one step
+            if (!share.tryReserve(quantity)) {
+                logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, false);
+                return new OperationResult(StatusCode.INSUFFICIENT_CAPACITY, "Not enough shares available for " + uniqueKey);
+            }
+            buyerLocks.lock(buyerID);
+            try {
+                holdingsOf(buyerID).merge(uniqueKey, quantity, Integer::sum); // Accumulate quantity
+                availabilityCache.bump(shareType);
+                holdingsCache.bump(buyerID);
+                if (journal != null) {
+                    ticket = journal.append(MarketJournal.trade(MarketJournal.PURCHASE, buyerID, shareType, shareID, quantity));
+                }
+            } finally {
+                buyerLocks.unlock(buyerID);
+            }
+        } finally {
+            endMutation();
+        }
+        if (!awaitDurable(ticket)) {
+            return notSaved("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType);
+        }
+        logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, true);
+        return OperationResult.ok(buyerID + " successfully purchased " + quantity + " shares of " + uniqueKey);
+    }
+
+    // Applies every order under one journal section and one hold of the buyer's
+    // stripe, queues their records together and waits for durability once, so the
+    // per-order cost is a map update and a capacity CAS. Share capacity itself is
+    // never locked. Orders are independent: a failed one doesn't stop the rest.
+    @Override
+    public TradeResult[] executeOrders(String buyerID, TradeOrder[] orders) {
+        OperationResult[] results = execute(buyerID, orders);
+        TradeResult[] tradeResults = new TradeResult[results.length];
+        for (int i = 0; i < results.length; i++) {
+            tradeResults[i] = new TradeResult(results[i].isSuccess(), results[i].getMessage());
+        }
+        return tradeResults;
+    }
+
+    // Timed as one call; it counts as a failure when any order failed
+    OperationResult[] execute(String buyerID, TradeOrder[] orders) {
+        long started = System.nanoTime();
+        OperationResult[] results = doExecute(buyerID, orders);
+        boolean success = true;
+        for (OperationResult result : results) {
+            success &= result.isSuccess();
+        }
+        executeTimer.record(started, success);
+        return results;
+    }
+
+    private OperationResult[] doExecute(String buyerID, TradeOrder[] orders) {
+        if (orders == null) {
+            return new OperationResult[0];
+        }
+        OperationResult[] results = new OperationResult[orders.length];
+        if (isBlank(buyerID)) {
+            Arrays.fill(results, new OperationResult(StatusCode.INVALID_REQUEST, "Buyer ID is required"));
+            logAction("Execute Orders", "buyerID: " + buyerID + ", orders: " + orders.length, false);
+            return results;
+        }
+        if (orders.length > maxBatchOrders) {
+            Arrays.fill(results, new OperationResult(StatusCode.INVALID_REQUEST, "Batch larger than " + maxBatchOrders + " orders"));
+            logAction("Execute Orders", "buyerID: " + buyerID + ", orders: " + orders.length, false);
+            return results;
+        }
+        OperationResult refused = journalFailure("Execute Orders", "buyerID: " + buyerID + ", orders: " + orders.length);
+        if (refused != null) {
+            Arrays.fill(results, refused);
+            return results;
+        }
+        // Malformed orders are answered before anything is applied
+        for (int i = 0; i < orders.length; i++) {
+            results[i] = checkOrder(orders[i]);
+        }
+        List<byte[]> records = new ArrayList<>(orders.length);
+        long ticket = 0;
+        beginMutation();
+        buyerLocks.lock(buyerID);
+        Set<String> touchedTypes = new HashSet<>();
+        try {
+            for (int i = 0; i < orders.length; i++) {
+                if (results[i] == null) {
+                    results[i] = applyOrder(buyerID, orders[i], records, touchedTypes);
+                }
+            }
+        } finally {
+            // Orders already applied stay applied, so they are journaled and their
+            // caches bumped even if a later one threw
+            try {
+                for (String shareType : touchedTypes) {
+                    availabilityCache.bump(shareType);
+                }
+                if (!records.isEmpty()) {
+                    holdingsCache.bump(buyerID);
+                }
+                if (journal != null) {
+                    ticket = journal.appendAll(records);
+                }
+            } finally {
+                buyerLocks.unlock(buyerID);
+                endMutation();
+            }
         }
-        // Update share and buyer holdings
-        synchronized (shareDatabase) {
-            synchronized (buyerHoldings) {
-                share.reduceCapacity(quantity);
-                String uniqueKey = shareType + "-" + shareID;
-                buyerHoldings.putIfAbsent(buyerID, new HashMap<>());
-                buyerHoldings.get(buyerID).put(uniqueKey, buyerHoldings.get(buyerID).getOrDefault(uniqueKey, 0) + quantity); // Accumulate quantity
-                logAction("Purchase Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType + ", quantity: " + quantity, true);
+        if (!awaitDurable(ticket)) {
+            OperationResult notSaved = notSaved("Execute Orders", "buyerID: " + buyerID + ", orders: " + orders.length);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].isSuccess()) {
+                    results[i] = notSaved;
+                }
             }
         }
-        return buyerID + " successfully purchased " + quantity + " shares of " + shareType + "-" + shareID;
+        for (int i = 0; i < orders.length; i++) {
+            TradeOrder order = orders[i];
+            logAction(order != null && order.getSide() == TradeOrder.Side.SELL ? "Sell Share" : "Purchase Share",
+                    "buyerID: " + buyerID + (order == null ? "" : ", shareID: " + order.getShareID()
+                            + ", shareType: " + order.getShareType() + ", quantity: " + order.getQuantity()),
+                    results[i].isSuccess());
+        }
+        return results;
+    }
+
+    // Null for an order applyOrder can take, otherwise why it can't
+    private static OperationResult checkOrder(TradeOrder order) {
+        if (order == null || order.getSide() == null) {
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Order has no side");
+        }
+        String uniqueKey = order.getShareType() + "-" + order.getShareID();
+        if (isBlank(order.getShareID()) || isBlank(order.getShareType())) {
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Share ID and type are required: " + uniqueKey);
+        }
+        if (order.getQuantity() <= 0) {
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Invalid quantity " + order.getQuantity() + " for " + uniqueKey);
+        }
+        return null;
+    }
+
+    // Caller holds the journal section and the buyer's stripe, and has checked order
+    private OperationResult applyOrder(String buyerID, TradeOrder order, List<byte[]> records, Set<String> touchedTypes) {
+        String shareID = order.getShareID();
+        String shareType = order.getShareType();
+        int quantity = order.getQuantity();
+        String uniqueKey = shareType + "-" + shareID;
+        Share share = findShare(shareType, shareID);
+        if (order.getSide() == TradeOrder.Side.PURCHASE) {
+            if (share == null) {
+                return new OperationResult(StatusCode.NOT_FOUND, "Share not available: " + uniqueKey);
+            }
+            if (!share.tryReserve(quantity)) {
+                return new OperationResult(StatusCode.INSUFFICIENT_CAPACITY, "Not enough shares available for " + uniqueKey);
+            }
+            holdingsOf(buyerID).merge(uniqueKey, quantity, Integer::sum);
+            records.add(MarketJournal.trade(MarketJournal.PURCHASE, buyerID, shareType, shareID, quantity));
+            touchedTypes.add(shareType);
+            return OperationResult.ok(buyerID + " successfully purchased " + quantity + " shares of " + uniqueKey);
+        }
+        if (share == null) {
+            return new OperationResult(StatusCode.NOT_FOUND, "Share not found: " + shareID);
+        }
+        Map<String, Integer> holdings = existingHoldings(buyerID);
+        Integer held = holdings == null ? null : holdings.get(uniqueKey);
+        if (held == null || held < quantity) {
+            return new OperationResult(StatusCode.INSUFFICIENT_HOLDINGS, "Not enough shares to sell");
+        }
+        holdings.computeIfPresent(uniqueKey, (key, count) -> count == quantity ? null : count - quantity);
+        share.release(quantity);
+        records.add(MarketJournal.trade(MarketJournal.SELL, buyerID, shareType, shareID, quantity));
+        touchedTypes.add(shareType);
+        return OperationResult.ok(buyerID + " successfully sold " + quantity + " shares of " + shareID);
+    }
+
+    Map<String, Integer> holdingsOf(String buyerID) {
+        Map<String, Integer> holdings = existingHoldings(buyerID);
+        return holdings != null ? holdings : buyerHoldings.computeIfAbsent(buyerID, id -> new ConcurrentHashMap<>());
+    }
+
+    // The buyer's holdings, loading them from the snapshot on first use, or null if
+    // the buyer has never held anything
+    private Map<String, Integer> existingHoldings(String buyerID) {
+        Map<String, Integer> holdings = buyerHoldings.get(buyerID);
+        MappedSnapshot view = snapshotView;
+        if (holdings != null || view == null) {
+            return holdings;
+        }
+        return buyerHoldings.computeIfAbsent(buyerID, view::loadHoldings);
     }
 
     @Override
-    public synchronized String removeShare(String shareID, String shareType) {
-        if (!shareDatabase.containsKey(shareType) || !shareDatabase.get(shareType).containsKey(shareID)) {
+    public String removeShare(String shareID, String shareType) {
+        return remove(shareID, shareType).getMessage();
+    }
+
+    OperationResult remove(String shareID, String shareType) {
+        long started = System.nanoTime();
+        return removeTimer.record(started, doRemove(shareID, shareType));
+    }
+
+    private OperationResult doRemove(String shareID, String shareType) {
+        String shareKey = shareType + "-" + shareID;
+        if (isBlank(shareID) || isBlank(shareType)) {
             logAction("Remove Share", "ShareID: " + shareID + ", ShareType: " + shareType, false);
-            return "Share not available: " + shareType + "-" + shareID;
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Share not available: " + shareKey);
+        }
+        OperationResult refused = journalFailure("Remove Share", "ShareID: " + shareID + ", ShareType: " + shareType);
+        if (refused != null) {
+            return refused;
+        }
+        long ticket = 0;
+        beginMutation();
+        shareLocks.lock(shareKey);
+        try {
+            if (findShare(shareType, shareID) == null) {
+                logAction("Remove Share", "ShareID: " + shareID + ", ShareType: " + shareType, false);
+                return new OperationResult(StatusCode.NOT_FOUND, "Share not available: " + shareKey);
+            }
+            shareDatabase.get(shareType).remove(shareID);
+            availabilityCache.bump(shareType);
+            if (journal != null) {
+                ticket = journal.append(MarketJournal.removeShare(shareType, shareID));
+            }
+        } finally {
+            shareLocks.unlock(shareKey);
+            endMutation();
+        }
+        if (!awaitDurable(ticket)) {
+            return notSaved("Remove Share", "ShareID: " + shareID + ", ShareType: " + shareType);
         }
-        shareDatabase.get(shareType).remove(shareID);
         logAction("Remove Share", "ShareID: " + shareID + ", ShareType: " + shareType, true);
-        return "Share removed successfully: " + shareType + "-" + shareID;
+        return OperationResult.ok("Share removed successfully: " + shareKey);
     }
 
-    private String sendUDPRequest(String server, int port, String message) throws IOException {
-        try (DatagramSocket socket = new DatagramSocket()) {
-            InetAddress address = InetAddress.getByName("localhost");
-            byte[] buffer = message.getBytes();
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, port);
-            socket.send(packet);
+    // Binary requests share the peer's UDPPeerClient, which retries and gives up
+    // after market.udp.timeoutMs. Text has no request id to match replies by, so it
+    // keeps one socket and one attempt per request on a tracked remote-call thread.
+    private CompletableFuture<String> sendUDPRequestAsync(String server, int port, PeerMessage message) {
+        if (Trace.ENABLED) {
+            message.traceId = Trace.currentId();
+        }
+        String description = message.toText();
+        if (!binaryPeerProtocol) {
+            return remoteCalls.submit("UDP", server, description, () -> sendUDPRequest(server, port, message));
+        }
+        return remoteCalls.track("UDP", server, description, () -> peerClient(server, port).send(message, udpTimeoutMillis));
+    }
 
-            byte[] receiveBuffer = new byte[4096];
-            DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-            socket.receive(receivePacket);
-            return new String(receivePacket.getData(), 0, receivePacket.getLength()).trim();
+    private UDPPeerClient peerClient(String server, int port) throws IOException {
+        UDPPeerClient client = peerClients.get(server);
+        if (client != null) {
+            return client;
+        }
+        synchronized (peerClients) {
+            client = peerClients.get(server);
+            if (client == null) {
+                client = new UDPPeerClient(server, "localhost", port);
+                peerClients.put(server, client);
+            }
+            return client;
         }
     }
 
-    @Override
-    public synchronized String sellShare(String buyerID, String shareID, String shareType, int quantity) {
-        if (!shareDatabase.containsKey(shareType) || !shareDatabase.get(shareType).containsKey(shareID)) {
-            logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, false);
-            return "Share not found: " + shareID;
+    // The datagram goes out and comes back in a pooled buffer
+    private String sendUDPRequest(String server, int port, PeerMessage message) throws IOException {
+        ByteBuffer buffer = BufferPool.DATAGRAMS.acquire();
+        try (DatagramChannel channel = DatagramChannel.open(); Selector selector = Selector.open()) {
+            message.encode(buffer, binaryPeerProtocol);
+            buffer.flip();
+            channel.send(buffer, new InetSocketAddress("localhost", port));
+
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            if (selector.select(udpTimeoutMillis) == 0) {
+                throw new SocketTimeoutException("Receive timed out");
+            }
+            buffer.clear();
+            channel.receive(buffer);
+            buffer.flip();
+            PeerMessage reply = new PeerMessage();
+            try {
+                reply.decode(buffer);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed reply from " + server + ": " + e.getMessage());
+            }
+            return reply.getText();
+        } finally {
+            BufferPool.DATAGRAMS.release(buffer);
         }
+    }
 
+    @Override
+    public String sellShare(String buyerID, String shareID, String shareType, int quantity) {
+        return sell(buyerID, shareID, shareType, quantity).getMessage();
+    }
+
+    OperationResult sell(String buyerID, String shareID, String shareType, int quantity) {
+        long started = System.nanoTime();
+        return sellTimer.record(started, doSell(buyerID, shareID, shareType, quantity));
+    }
+
+    private OperationResult doSell(String buyerID, String shareID, String shareType, int quantity) {
         String uniqueKey = shareType + "-" + shareID;
-        if (!buyerHoldings.containsKey(buyerID) || !buyerHoldings.get(buyerID).containsKey(uniqueKey) || buyerHoldings.get(buyerID).get(uniqueKey) < quantity) {
+        if (isBlank(buyerID) || isBlank(shareID) || isBlank(shareType)) {
             logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, false);
-            return "Not enough shares to sell";
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Share not found: " + shareID);
+        }
+        OperationResult refused = journalFailure("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType);
+        if (refused != null) {
+            return refused;
         }
+        long ticket = 0;
+        beginMutation();
+        try {
+            Share share = findShare(shareType, shareID);
+            if (share == null) {
+                logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, false);
+                return new OperationResult(StatusCode.NOT_FOUND, "Share not found: " + shareID);
+            }
 
-        synchronized (shareDatabase) {
-            synchronized (buyerHoldings) {
-                // Update share capacity and buyer holdings
-                Share share = shareDatabase.get(shareType).get(shareID);
-                share.increaseCapacity(quantity);
-                buyerHoldings.get(buyerID).put(uniqueKey, buyerHoldings.get(buyerID).get(uniqueKey) - quantity);
-                if (buyerHoldings.get(buyerID).get(uniqueKey) == 0) {
-                    buyerHoldings.get(buyerID).remove(uniqueKey);
+            buyerLocks.lock(buyerID);
+            try {
+                Map<String, Integer> holdings = existingHoldings(buyerID);
+                Integer held = holdings == null ? null : holdings.get(uniqueKey);
+                if (held == null || quantity < 0 || held < quantity) {
+                    logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, false);
+                    return new OperationResult(StatusCode.INSUFFICIENT_HOLDINGS, "Not enough shares to sell");
                 }
 
-                logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, true);
+                // Update buyer holdings and hand the capacity back
+                holdings.computeIfPresent(uniqueKey, (key, count) -> count == quantity ? null : count - quantity);
+                share.release(quantity);
+                availabilityCache.bump(shareType);
+                holdingsCache.bump(buyerID);
+                if (journal != null) {
+                    ticket = journal.append(MarketJournal.trade(MarketJournal.SELL, buyerID, shareType, shareID, quantity));
+                }
+            } finally {
+                buyerLocks.unlock(buyerID);
             }
+        } finally {
+            endMutation();
+        }
+        if (!awaitDurable(ticket)) {
+            return notSaved("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", shareType: " + shareType);
         }
-        return buyerID + " successfully sold " + quantity + " shares of " + shareID;
+        logAction("Sell Share", "buyerID: " + buyerID + ", shareID: " + shareID + ", quantity: " + quantity, true);
+        return OperationResult.ok(buyerID + " successfully sold " + quantity + " shares of " + shareID);
     }
 
     @Override
-    public synchronized String listShareAvailability(String shareType) {
+    public String listShareAvailability(String shareType) {
+        long started = System.nanoTime();
+        String availability = localAvailability(shareType);
+        availabilityTimer.record(started, true);
+        return availability;
+    }
+
+    private String localAvailability(String shareType) {
+        if (isBlank(shareType)) {
+            return "No shares of type " + shareType + " found.";
+        }
+        // Unknown types are not cached so arbitrary input can't fill the cache
+        if (!shareDatabase.containsKey(shareType)) {
+            return "No shares of type " + shareType + " found.";
+        }
+        return availabilityCache.get(shareType, () -> renderAvailability(shareType));
+    }
+
+    // Sends LIST_AVAILABILITY to every peer at once and waits until one shared
+    // deadline, so the call takes about as long as the slowest peer. Peers that miss
+    // the deadline or fail are listed at the end instead of failing the whole call.
+    @Override
+    public String listGlobalShareAvailability(String shareType) {
+        long started = System.nanoTime();
+        if (isBlank(shareType)) {
+            return localAvailability(shareType);
+        }
+        StringBuilder result = new StringBuilder();
+        appendMarketAvailability(result, city, localAvailability(shareType));
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, String> reply : askAllPeers(() -> PeerMessage.listAvailability(shareType), missing).entrySet()) {
+            String availability = reply.getValue();
+            appendMarketAvailability(result, reply.getKey(),
+                    availability.isEmpty() ? "No shares of type " + shareType + " found." : availability);
+        }
+        if (!missing.isEmpty()) {
+            result.append("Partial result, missing: ").append(String.join(", ", missing));
+        }
+        logAction("List Global Share Availability", "ShareType: " + shareType + ", Missing: " + missing.size(), missing.isEmpty());
+        globalAvailabilityTimer.record(started, missing.isEmpty());
+        return result.toString().trim();
+    }
+
+    // The buyer's holdings here and, over GET_SHARES, in every peer, gathered the
+    // same way as listGlobalShareAvailability
+    @Override
+    public String getGlobalShares(String buyerID) {
+        long started = System.nanoTime();
+        if (isBlank(buyerID)) {
+            return localShares(buyerID);
+        }
+        StringBuilder result = new StringBuilder();
+        appendMarketShares(result, city, localShares(buyerID));
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, String> reply : askAllPeers(() -> PeerMessage.getShares(buyerID), missing).entrySet()) {
+            appendMarketShares(result, reply.getKey(), reply.getValue());
+        }
+        if (!missing.isEmpty()) {
+            result.append("Partial result, missing: ").append(String.join(", ", missing));
+        }
+        logAction("Get Global Shares", "buyerID: " + buyerID + ", Missing: " + missing.size(), missing.isEmpty());
+        globalSharesTimer.record(started, missing.isEmpty());
+        return result.toString().trim();
+    }
+
+    // Sends a fresh request to every peer at once and returns the replies that
+    // arrive before one shared deadline, by city in peer order. Peers that miss it,
+    // fail or answer FAILED are added to missing with the reason.
+    private Map<String, String> askAllPeers(Supplier<PeerMessage> request, List<String> missing) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(udpTimeoutMillis);
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> peer : remoteServers.entrySet()) {
+            pending.put(peer.getKey(), sendUDPRequestAsync(peer.getKey(), peer.getValue(), request.get()));
+        }
+        Map<String, String> replies = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> reply : pending.entrySet()) {
+            String peerCity = reply.getKey();
+            try {
+                String text = reply.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (text.startsWith("FAILED:")) {
+                    missing.add(peerCity + " (" + text.substring("FAILED:".length()) + ")");
+                } else {
+                    replies.put(peerCity, text);
+                }
+            } catch (TimeoutException e) {
+                reply.getValue().cancel(false);
+                missing.add(peerCity + " (no reply within " + udpTimeoutMillis + " ms)");
+            } catch (ExecutionException e) {
+                missing.add(peerCity + " (" + e.getCause().getMessage() + ")");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                missing.add(peerCity + " (interrupted)");
+            }
+        }
+        return replies;
+    }
+
+    private static void appendMarketShares(StringBuilder result, String market, String shares) {
+        result.append("---Your ").append(market).append(" Market Shares---\n")
+                .append(shares.isEmpty() ? "No shares found." : shares).append("\n");
+    }
+
+    private static void appendMarketAvailability(StringBuilder result, String market, String availability) {
+        result.append("---").append(market).append(" Market Availability---\n")
+                .append(availability).append("\n");
+    }
+
+    private String renderAvailability(String shareType) {
         StringBuilder result = new StringBuilder();
         boolean shareFound = false;
 
@@ -198,136 +911,347 @@ public class ShareMarketServerImpl implements ShareMarketServer{
         return result.toString().trim();
     }
 
+    List<ShareAvailability> availability(String shareType) {
+        long started = System.nanoTime();
+        List<ShareAvailability> result = new ArrayList<>();
+        Map<String, Share> sharesOfType = isBlank(shareType) ? null : shareDatabase.get(shareType);
+        if (sharesOfType != null) {
+            for (Share share : sharesOfType.values()) {
+                result.add(new ShareAvailability(share.getShareID(), share.getShareType(),
+                        share.getAvailableCapacity(), share.getOriginMarket()));
+            }
+        }
+        availabilityTimer.record(started, true);
+        return result;
+    }
+
     @Override
-    public synchronized String purchaseRemoteShare(String buyerID, String shareID, String shareType,
-                                                   int shareCount, String targetMarket) {
+    public String purchaseRemoteShare(String buyerID, String shareID, String shareType,
+                                      int shareCount, String targetMarket) {
+        return purchaseRemote(buyerID, shareID, shareType, shareCount, targetMarket).getMessage();
+    }
+
+    OperationResult purchaseRemote(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
+        long started = System.nanoTime();
+        return purchaseRemoteTimer.record(started, doPurchaseRemote(buyerID, shareID, shareType, shareCount, targetMarket));
+    }
+
+    private OperationResult doPurchaseRemote(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
         try {
-            // Determine the URL for the target market's web service
-            String targetUrl = getWebServiceUrl(targetMarket);
-            if (targetUrl == null) {
+            if (isBlank(buyerID) || isBlank(shareID) || isBlank(shareType) || isBlank(targetMarket)
+                    || MarketDirectory.webServiceUrl(targetMarket) == null) {
                 logAction("Purchase Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
                         ", Target: " + targetMarket, false);
-                return "Purchase failed. Invalid target market.";
+                return new OperationResult(StatusCode.INVALID_REQUEST, "Purchase failed. Invalid target market.");
             }
 
-            // Create a web service client for the remote server
-            URL url = new URL(targetUrl);
-            QName qname = new QName("http://server.org/", "ShareMarketServerImplService");
-            Service service = Service.create(url, qname);
-            ShareMarketServer remoteServer = service.getPort(ShareMarketServer.class);
-
-            // Execute the purchase on the remote server
-            String result = remoteServer.purchaseShare(buyerID, shareID, shareType, shareCount);
+            // Execute the purchase on the remote server through a pooled port
+            OperationResult result = tradeRemote(targetMarket, "purchaseShare " + buyerID, buyerID,
+                    remoteServer -> remoteServer.purchaseShare(buyerID, shareID, shareType, shareCount),
+                    remoteServer -> remoteServer.purchaseShare(buyerID, shareID, shareType, shareCount));
 
             // Log the cross-server transaction
-            boolean success = result.startsWith(buyerID);  // Check if purchase was successful
             logAction("Purchase Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
-                    ", Target: " + targetMarket + ", Quantity: " + shareCount, success);
+                    ", Target: " + targetMarket + ", Quantity: " + shareCount, result.isSuccess());
 
-            return "Cross-server purchase: " + result;
+            return new OperationResult(result.getStatus(), "Cross-server purchase: " + result.getMessage());
+        } catch (RemoteCallTracker.NoReplyException e) {
+            logAction("Purchase Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
+                    ", Target: " + targetMarket + ", Quantity: " + shareCount + ", Outcome: unknown", false);
+            return new OperationResult(StatusCode.OUTCOME_UNKNOWN, "Cross-server purchase outcome unknown: " + e.getMessage()
+                    + "; check the buyer's shares in " + targetMarket + " before retrying");
         } catch (Exception e) {
             logAction("Purchase Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
                     ", Target: " + targetMarket, false);
-            return "Cross-server purchase failed: " + e.getMessage();
+            return new OperationResult(StatusCode.REMOTE_FAILURE, "Cross-server purchase failed: " + e.getMessage());
         }
     }
 
-    private String getWebServiceUrl(String targetMarket) {
-        // Map market names to their respective web service URLs
-        Map<String, String> marketUrls = new HashMap<>();
-        marketUrls.put("NewYork", "http://localhost:8080/ShareMarketService");
-        marketUrls.put("London", "http://localhost:8081/ShareMarketService");
-        marketUrls.put("Tokyo", "http://localhost:8082/ShareMarketService");
+    @Override
+    public String sellRemoteShare(String buyerID, String shareID, String shareType,
+                                  int shareCount, String targetMarket) {
+        return sellRemote(buyerID, shareID, shareType, shareCount, targetMarket).getMessage();
+    }
 
-        return marketUrls.get(targetMarket);
+    OperationResult sellRemote(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
+        long started = System.nanoTime();
+        return sellRemoteTimer.record(started, doSellRemote(buyerID, shareID, shareType, shareCount, targetMarket));
     }
 
-    @Override
-    public synchronized String sellRemoteShare(String buyerID, String shareID, String shareType,
-                                               int shareCount, String targetMarket) {
+    private OperationResult doSellRemote(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
         try {
-            // Determine the URL for the target market's web service
-            String targetUrl = getWebServiceUrl(targetMarket);
-            if (targetUrl == null) {
+            if (isBlank(buyerID) || isBlank(shareID) || isBlank(shareType) || isBlank(targetMarket)
+                    || MarketDirectory.webServiceUrl(targetMarket) == null) {
                 logAction("Sell Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
                         ", Target: " + targetMarket, false);
-                return "Sell failed. Invalid target market.";
+                return new OperationResult(StatusCode.INVALID_REQUEST, "Sell failed. Invalid target market.");
             }
 
-            // Create a web service client for the remote server
-            URL url = new URL(targetUrl);
-            QName qname = new QName("http://server.org/", "ShareMarketServerImplService");
-            Service service = Service.create(url, qname);
-            ShareMarketServer remoteServer = service.getPort(ShareMarketServer.class);
-
-            // Execute the sell on the remote server
-            String result = remoteServer.sellShare(buyerID, shareID, shareType, shareCount);
+            // Execute the sell on the remote server through a pooled port
+            OperationResult result = tradeRemote(targetMarket, "sellShare " + buyerID, buyerID,
+                    remoteServer -> remoteServer.sellShare(buyerID, shareID, shareType, shareCount),
+                    remoteServer -> remoteServer.sellShare(buyerID, shareID, shareType, shareCount));
 
             // Log the cross-server transaction
-            boolean success = result.startsWith(buyerID);  // Check if sell was successful
             logAction("Sell Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
-                    ", Target: " + targetMarket + ", Quantity: " + shareCount, success);
+                    ", Target: " + targetMarket + ", Quantity: " + shareCount, result.isSuccess());
 
-            return "Cross-server sell: " + result;
+            return new OperationResult(result.getStatus(), "Cross-server sell: " + result.getMessage());
+        } catch (RemoteCallTracker.NoReplyException e) {
+            logAction("Sell Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
+                    ", Target: " + targetMarket + ", Quantity: " + shareCount + ", Outcome: unknown", false);
+            return new OperationResult(StatusCode.OUTCOME_UNKNOWN, "Cross-server sell outcome unknown: " + e.getMessage()
+                    + "; check the buyer's shares in " + targetMarket + " before retrying");
         } catch (Exception e) {
             logAction("Sell Remote Share", "BuyerID: " + buyerID + ", ShareID: " + shareID +
                     ", Target: " + targetMarket, false);
-            return "Cross-server sell failed: " + e.getMessage();
+            return new OperationResult(StatusCode.REMOTE_FAILURE, "Cross-server sell failed: " + e.getMessage());
+        }
+    }
+
+    // Runs a trade at targetMarket over version 2, or over version 1 when the peer
+    // answered that it has no version 2 endpoint. That answer comes before anything
+    // is sent, so a trade is never made twice; a peer that can't be reached at all
+    // fails the trade and is tried over version 2 again next time.
+    private OperationResult tradeRemote(String targetMarket, String description, String buyerID,
+                                        Function<ShareMarketServerV2, OperationResult> v2Trade,
+                                        Function<ShareMarketServer, String> v1Trade) throws IOException {
+        Long retryAt = noV2Until.get(targetMarket);
+        if (retryAt == null || System.nanoTime() - retryAt > 0) {
+            try {
+                OperationResult result = RemoteCallTracker.await(remoteCalls.submit("SOAP", targetMarket, description,
+                        () -> remotePorts.call(targetMarket, v2Trade)), remoteTimeoutMillis);
+                noV2Until.remove(targetMarket);
+                return result;
+            } catch (RemotePortPool.NoServiceException e) {
+                noV2Until.put(targetMarket, System.nanoTime() + V2_RETRY_NANOS);
+            }
         }
+        String reply = RemoteCallTracker.await(remoteCalls.submit("SOAP", targetMarket, description,
+                () -> remoteV1Ports.call(targetMarket, v1Trade)), remoteTimeoutMillis);
+        // A version 1 reply names the buyer only when the trade went through
+        return reply.startsWith(buyerID) ? OperationResult.ok(reply) : new OperationResult(StatusCode.REMOTE_FAILURE, reply);
     }
 
     @Override
-    public synchronized String swapShares(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType) {
-        // Check if the buyer owns the old share
+    public String swapShares(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType) {
+        return swap(buyerID, oldShareID, oldShareType, newShareID, newShareType).getMessage();
+    }
+
+    OperationResult swap(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType) {
+        long started = System.nanoTime();
+        return swapTimer.record(started, doSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType));
+    }
+
+    private OperationResult doSwap(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType) {
         String oldShareKey = oldShareType + "-" + oldShareID;
-        if (!buyerHoldings.containsKey(buyerID) || !buyerHoldings.get(buyerID).containsKey(oldShareKey)) {
-            logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareType + "-" + newShareID, false);
-            return "Buyer does not own the share to be swapped";
+        String newShareKey = newShareType + "-" + newShareID;
+        int oldShareCount;
+        long ticket = 0;
+        String localResult = null;
+        if (isBlank(buyerID) || isBlank(oldShareID) || isBlank(oldShareType) || isBlank(newShareID) || isBlank(newShareType)) {
+            logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, false);
+            return new OperationResult(StatusCode.INVALID_REQUEST, "Buyer does not own the share to be swapped");
+        }
+        OperationResult refused = journalFailure("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey);
+        if (refused != null) {
+            return refused;
+        }
+        // The buyer stripe covers the local swap, or taking the old holding out
+        // while the peers are asked; it is never held across a remote call. Because
+        // the stripe is taken first, journal sections use beginNestedMutation.
+        buyerLocks.lock(buyerID);
+        try {
+            Map<String, Integer> holdings = existingHoldings(buyerID);
+            Integer held = holdings == null ? null : holdings.get(oldShareKey);
+            if (held == null) {
+                logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, false);
+                return new OperationResult(StatusCode.INSUFFICIENT_HOLDINGS, "Buyer does not own the share to be swapped");
+            }
+            oldShareCount = held;
+
+            // Reserve the new share locally if it has enough capacity
+            Share localNewShare = findShare(newShareType, newShareID);
+            beginNestedMutation();
+            try {
+                if (localNewShare != null && localNewShare.tryReserve(oldShareCount)) {
+                    localResult = executeLocalSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType, oldShareCount);
+                    if (journal != null) {
+                        ticket = journal.append(MarketJournal.swap(MarketJournal.LOCAL_SWAP, buyerID,
+                                oldShareType, oldShareID, newShareType, newShareID, oldShareCount));
+                    }
+                } else {
+                    // Nothing is journaled yet; snapshots add pending amounts back in
+                    holdings.remove(oldShareKey);
+                    pendingSwapOuts.computeIfAbsent(buyerID, id -> new ConcurrentHashMap<>())
+                            .merge(oldShareKey, oldShareCount, Integer::sum);
+                    holdingsCache.bump(buyerID);
+                }
+            } finally {
+                endMutation();
+            }
+        } finally {
+            buyerLocks.unlock(buyerID);
+        }
+        if (localResult != null) {
+            if (!awaitDurable(ticket)) {
+                return notSaved("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey);
+            }
+            return OperationResult.ok(localResult);
         }
 
-        int oldShareCount = buyerHoldings.get(buyerID).get(oldShareKey);
+        String swappedIn = findRemoteSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType, oldShareCount);
 
-        // Check availability of the new share locally
-        String localAvailability = checkSwapAvailability(newShareID, newShareType, oldShareCount);
-        if (localAvailability.startsWith("AVAILABLE")) {
-            // Execute the swap locally
-            return executeLocalSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType, oldShareCount);
+        buyerLocks.lock(buyerID);
+        try {
+            beginNestedMutation();
+            try {
+                pendingSwapOuts.computeIfPresent(buyerID, (id, pending) -> {
+                    pending.computeIfPresent(oldShareKey, (key, count) -> count == oldShareCount ? null : count - oldShareCount);
+                    return pending.isEmpty() ? null : pending;
+                });
+                // Merge rather than put: the buyer may have bought more of either
+                // share while the peers were being asked
+                if (swappedIn != null) {
+                    holdingsOf(buyerID).merge(newShareKey, oldShareCount, Integer::sum);
+                    if (journal != null) {
+                        ticket = journal.append(MarketJournal.swap(MarketJournal.REMOTE_SWAP_OUT, buyerID,
+                                oldShareType, oldShareID, newShareType, newShareID, oldShareCount));
+                    }
+                } else {
+                    holdingsOf(buyerID).merge(oldShareKey, oldShareCount, Integer::sum);
+                }
+                holdingsCache.bump(buyerID);
+            } finally {
+                endMutation();
+            }
+        } finally {
+            buyerLocks.unlock(buyerID);
+        }
+        if (!awaitDurable(ticket)) {
+            return notSaved("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey);
         }
 
-        // If not available locally, check remote servers
+        if (swappedIn == null) {
+            logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, false);
+            return new OperationResult(StatusCode.UNAVAILABLE, "Unable to swap shares. New share not available in any market.");
+        }
+        logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, true);
+        return OperationResult.ok("Successfully swapped " + oldShareCount + " shares of " + oldShareKey + " for " + newShareKey + " in " + swappedIn);
+    }
+
+    // Sends PREPARE_SWAP to every peer at once and commits at the first that holds
+    // the capacity, moving on to the next if that commit fails. Returns the city
+    // that swapped, or null. Every other hold is aborted as its answer arrives, or
+    // left to expire if it never does, so no lock or decision waits on a straggler.
+    private String findRemoteSwap(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType, int shareCount) {
+        if (!parallelSwapProbe) {
+            return findRemoteSwapInTurn(buyerID, oldShareID, oldShareType, newShareID, newShareType, shareCount);
+        }
+        BlockingQueue<Map.Entry<String, String>> answers = new LinkedBlockingQueue<>();
+        Map<String, CompletableFuture<String>> prepares = new LinkedHashMap<>();
         for (Map.Entry<String, Integer> remoteServer : remoteServers.entrySet()) {
             String remoteCity = remoteServer.getKey();
-            int remotePort = remoteServer.getValue();
+            CompletableFuture<String> prepare = sendUDPRequestAsync(remoteCity, remoteServer.getValue(),
+                    PeerMessage.prepareSwap(buyerID, newShareID, newShareType, shareCount));
+            prepare.whenComplete((reply, e) -> answers.add(new AbstractMap.SimpleImmutableEntry<>(remoteCity, e == null ? reply : "")));
+            prepares.put(remoteCity, prepare);
+        }
+        String winner = null;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(udpTimeoutMillis);
+            for (int outstanding = prepares.size(); outstanding > 0 && winner == null; outstanding--) {
+                Map.Entry<String, String> answer = answers.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (answer == null) {
+                    break;
+                }
+                if (completeSwapAt(answer.getKey(), answer.getValue(), buyerID, oldShareID, oldShareType,
+                        newShareID, newShareType, shareCount)) {
+                    winner = answer.getKey();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<String, CompletableFuture<String>> prepare : prepares.entrySet()) {
+            String remoteCity = prepare.getKey();
+            if (!remoteCity.equals(winner)) {
+                prepare.getValue().thenAccept(reply -> abortHold(remoteCity, reply));
+            }
+        }
+        return winner;
+    }
 
+    // market.swap.probe=sequential: prepares at one peer at a time
+    private String findRemoteSwapInTurn(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType, int shareCount) {
+        for (Map.Entry<String, Integer> remoteServer : remoteServers.entrySet()) {
+            String remoteCity = remoteServer.getKey();
             try {
-                String remoteAvailability = sendUDPRequest(remoteCity, remotePort, "CHECK_SWAP_AVAILABILITY " + newShareID + " " + newShareType + " " + oldShareCount);
-                if (remoteAvailability.startsWith("AVAILABLE")) {
-                    // Execute the swap with the remote server
-                    String swapResult = sendUDPRequest(remoteCity, remotePort, "EXECUTE_SWAP " + buyerID + " " + oldShareID + " " + oldShareType + " " + newShareID + " " + newShareType + " " + oldShareCount);
-                    if (swapResult.startsWith("SUCCESS")) {
-                        // Update local records
-                        buyerHoldings.get(buyerID).remove(oldShareKey);
-                        String newShareKey = newShareType + "-" + newShareID;
-                        buyerHoldings.get(buyerID).put(newShareKey, oldShareCount);
-                        logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, true);
-                        return "Successfully swapped " + oldShareCount + " shares of " + oldShareKey + " for " + newShareKey + " in " + remoteCity;
-                    }
+                String prepared = RemoteCallTracker.await(sendUDPRequestAsync(remoteCity, remoteServer.getValue(),
+                        PeerMessage.prepareSwap(buyerID, newShareID, newShareType, shareCount)), udpTimeoutMillis);
+                if (completeSwapAt(remoteCity, prepared, buyerID, oldShareID, oldShareType, newShareID, newShareType, shareCount)) {
+                    return remoteCity;
                 }
+                abortHold(remoteCity, prepared);
             } catch (IOException e) {
                 System.err.println("Error communicating with " + remoteCity + ": " + e.getMessage());
             }
         }
+        return null;
+    }
+
+    // Acts on a peer's answer to PREPARE_SWAP and returns whether the new share is
+    // now the buyer's there. A peer that predates holds answers INVALID_REQUEST and
+    // is asked to EXECUTE_SWAP instead, which checks and takes the capacity at once.
+    private boolean completeSwapAt(String remoteCity, String prepared, String buyerID, String oldShareID, String oldShareType,
+                                   String newShareID, String newShareType, int shareCount) {
+        PeerMessage request;
+        if (prepared.startsWith("PREPARED:")) {
+            request = PeerMessage.commitSwap(Long.parseLong(prepared.substring("PREPARED:".length())));
+        } else if (prepared.startsWith("INVALID_REQUEST")) {
+            request = PeerMessage.executeSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType, shareCount);
+        } else {
+            return false;
+        }
+        try {
+            return RemoteCallTracker.await(sendUDPRequestAsync(remoteCity, remoteServers.get(remoteCity), request),
+                    udpTimeoutMillis).startsWith("SUCCESS");
+        } catch (IOException e) {
+            if (request.getCommand() != PeerMessage.COMMIT_SWAP) {
+                System.err.println("Error communicating with " + remoteCity + ": " + e.getMessage());
+                return false;
+            }
+        }
+        // The commit may or may not have arrived. An ABORT settles it: the peer either
+        // releases the hold or answers COMMITTED.
+        try {
+            String aborted = RemoteCallTracker.await(sendUDPRequestAsync(remoteCity, remoteServers.get(remoteCity),
+                    PeerMessage.abortSwap(request.holdId)), udpTimeoutMillis);
+            return aborted.startsWith("COMMITTED");
+        } catch (IOException e) {
+            System.err.println("Swap with " + remoteCity + " in doubt for buyer " + buyerID + ", hold "
+                    + request.holdId + ": " + e.getMessage());
+            logAction("Swap In Doubt", "buyerID: " + buyerID + ", market: " + remoteCity + ", hold: " + request.holdId, false);
+            return false;
+        }
+    }
 
-        logAction("Swap Shares", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareType + "-" + newShareID, false);
-        return "Unable to swap shares. New share not available in any market.";
+    // Releases a hold this market is not going to use; one whose ABORT is lost expires
+    private void abortHold(String remoteCity, String prepared) {
+        if (prepared.startsWith("PREPARED:")) {
+            sendUDPRequestAsync(remoteCity, remoteServers.get(remoteCity),
+                    PeerMessage.abortSwap(Long.parseLong(prepared.substring("PREPARED:".length()))));
+        }
     }
 
-    private String checkSwapAvailability(String shareID, String shareType, int requiredCount) {
-        if (!shareDatabase.containsKey(shareType) || !shareDatabase.get(shareType).containsKey(shareID)) {
+    // Only advisory: the capacity may be taken before a following EXECUTE_SWAP. Still
+    // answered for markets that swap without holds; PREPARE_SWAP replaces it.
+    String checkSwapAvailability(String shareID, String shareType, int requiredCount) {
+        Share share = findShare(shareType, shareID);
+        if (share == null) {
             return "NOT_AVAILABLE:Share not found";
         }
 
-        Share share = shareDatabase.get(shareType).get(shareID);
         if (share.getAvailableCapacity() < requiredCount) {
             return "NOT_AVAILABLE:Not enough shares available. Required: " + requiredCount + ", Available: " + share.getAvailableCapacity();
         }
@@ -335,21 +1259,172 @@ public class ShareMarketServerImpl implements ShareMarketServer{
         return "AVAILABLE:Share available for swap";
     }
 
+    // The new share's capacity has already been reserved by the caller.
     private String executeLocalSwap(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType, int shareCount) {
         // Remove old share from buyer's holdings
         String oldShareKey = oldShareType + "-" + oldShareID;
-        buyerHoldings.get(buyerID).remove(oldShareKey);
+        Map<String, Integer> holdings = existingHoldings(buyerID);
+        holdings.remove(oldShareKey);
 
-        // Add new share to buyer's holdings
+        // Add new share to buyer's holdings, on top of any already held
         String newShareKey = newShareType + "-" + newShareID;
-        buyerHoldings.get(buyerID).put(newShareKey, shareCount);
+        holdings.merge(newShareKey, shareCount, Integer::sum);
 
-        // Update share capacities
-        shareDatabase.get(oldShareType).get(oldShareID).increaseCapacity(shareCount);
-        shareDatabase.get(newShareType).get(newShareID).reduceCapacity(shareCount);
+        // Hand back the old share's capacity
+        Share oldShare = findShare(oldShareType, oldShareID);
+        if (oldShare != null) {
+            oldShare.release(shareCount);
+        }
+        availabilityCache.bump(oldShareType);
+        availabilityCache.bump(newShareType);
+        holdingsCache.bump(buyerID);
 
         logAction("Local Swap", "buyerID: " + buyerID + ", oldShare: " + oldShareKey + ", newShare: " + newShareKey, true);
         return "SUCCESS:Swapped " + shareCount + " shares of " + oldShareKey + " for " + newShareKey;
     }
 
+    // Handles EXECUTE_SWAP from a peer market. No buyer stripe is taken here; the
+    // originating market has already taken the old holding out for this swap.
+    String executeRemoteSwap(String buyerID, String newShareID, String newShareType, int shareCount) {
+        String uniqueNewKey = newShareType + "-" + newShareID;
+        long ticket = 0;
+        beginMutation();
+        try {
+            Share newShare = findShare(newShareType, newShareID);
+            if (newShare == null) {
+                return "FAILED:New share not found";
+            }
+            if (!newShare.tryReserve(shareCount)) {
+                return "FAILED:Not enough new shares available";
+            }
+
+            // Add the new share to the buyer's holdings
+            newShare.addBuyer(buyerID);
+            holdingsOf(buyerID).merge(uniqueNewKey, shareCount, Integer::sum);
+            availabilityCache.bump(newShareType);
+            holdingsCache.bump(buyerID);
+            if (journal != null) {
+                ticket = journal.append(MarketJournal.swap(MarketJournal.REMOTE_SWAP_IN, buyerID,
+                        "", "", newShareType, newShareID, shareCount));
+            }
+        } finally {
+            endMutation();
+        }
+        if (!awaitDurable(ticket)) {
+            return "FAILED:Not saved, the market's journal has failed";
+        }
+
+        System.out.println("Swap executed: Buyer " + buyerID + " acquired " + shareCount +
+                " shares of " + uniqueNewKey);
+        return "SUCCESS:Swapped " + shareCount + " shares of " + uniqueNewKey;
+    }
+
+    // Capacity taken out by PREPARE_SWAP until it is committed, aborted or expires
+    static class SwapHold {
+        final long id;
+        final String buyerID;
+        final Share share;
+        final int count;
+
+        SwapHold(long id, String buyerID, Share share, int count) {
+            this.id = id;
+            this.buyerID = buyerID;
+            this.share = share;
+            this.count = count;
+        }
+    }
+
+    // Takes the capacity now and keeps it for market.swap.holdTtlMs, waiting for the
+    // other market to commit or abort
+    String prepareSwap(String buyerID, String shareID, String shareType, int shareCount) {
+        SwapHold hold;
+        beginMutation();
+        try {
+            Share share = findShare(shareType, shareID);
+            if (share == null) {
+                return "NOT_AVAILABLE:Share not found";
+            }
+            if (!share.tryReserve(shareCount)) {
+                return "NOT_AVAILABLE:Not enough shares available. Required: " + shareCount + ", Available: " + share.getAvailableCapacity();
+            }
+            hold = new SwapHold(nextHoldId.incrementAndGet(), buyerID, share, shareCount);
+            swapHolds.put(hold.id, hold);
+            availabilityCache.bump(shareType);
+        } finally {
+            endMutation();
+        }
+        HOLD_EXPIRY.schedule(() -> expireHold(hold), holdTtlMillis);
+        return "PREPARED:" + hold.id;
+    }
+
+    String commitSwap(long holdId) {
+        SwapHold hold;
+        long ticket = 0;
+        beginMutation();
+        try {
+            // The tombstone goes in first, so an ABORT that finds the hold gone
+            // always knows whether it was committed
+            hold = swapHolds.get(holdId);
+            if (hold != null) {
+                committedHolds.put(holdId, Boolean.TRUE);
+                if (!swapHolds.remove(holdId, hold)) {
+                    committedHolds.remove(holdId);
+                    hold = null;
+                }
+            }
+            if (hold == null) {
+                return "FAILED:No such hold, it may have expired";
+            }
+            Share share = hold.share;
+            share.addBuyer(hold.buyerID);
+            holdingsOf(hold.buyerID).merge(share.getShareType() + "-" + share.getShareID(), hold.count, Integer::sum);
+            holdingsCache.bump(hold.buyerID);
+            if (journal != null) {
+                ticket = journal.append(MarketJournal.swap(MarketJournal.REMOTE_SWAP_IN, hold.buyerID,
+                        "", "", share.getShareType(), share.getShareID(), hold.count));
+            }
+        } finally {
+            endMutation();
+        }
+        HOLD_EXPIRY.schedule(() -> committedHolds.remove(holdId), 2 * holdTtlMillis);
+        if (!awaitDurable(ticket)) {
+            return "FAILED:Not saved, the market's journal has failed";
+        }
+        return "SUCCESS:Swapped " + hold.count + " shares of " + hold.share.getShareType() + "-" + hold.share.getShareID();
+    }
+
+    // Answers COMMITTED for a hold that was committed recently; anything else is
+    // released, or already was by expiring
+    String abortSwap(long holdId) {
+        SwapHold hold = swapHolds.get(holdId);
+        if (hold != null && releaseHold(hold)) {
+            return "ABORTED";
+        }
+        return committedHolds.containsKey(holdId) ? "COMMITTED" : "ABORTED";
+    }
+
+    // Runs on the expiry wheel's thread, so a failure is logged here
+    private void expireHold(SwapHold hold) {
+        try {
+            if (releaseHold(hold)) {
+                expiredHolds.increment();
+            }
+        } catch (RuntimeException e) {
+            logAction("Expire Swap Hold", "holdId: " + hold.id + ", error: " + e, false);
+        }
+    }
+
+    private boolean releaseHold(SwapHold hold) {
+        beginMutation();
+        try {
+            if (!swapHolds.remove(hold.id, hold)) {
+                return false;
+            }
+            hold.share.release(hold.count);
+            availabilityCache.bump(hold.share.getShareType());
+            return true;
+        } finally {
+            endMutation();
+        }
+    }
 }
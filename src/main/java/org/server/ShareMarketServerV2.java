@@ -0,0 +1,63 @@
+package org.server;
+
+import java.util.List;
+import javax.jws.WebMethod;
+import javax.jws.WebParam;
+import javax.jws.WebService;
+import javax.jws.soap.SOAPBinding;
+import javax.jws.soap.SOAPBinding.ParameterStyle;
+import javax.jws.soap.SOAPBinding.Style;
+import javax.jws.soap.SOAPBinding.Use;
+
+// Version 2 of the market service: document/literal, and every operation returns
+// typed records and a status code instead of text to be parsed. Published next to
+// ShareMarketServer, which stays as it is for existing clients.
+@WebService(targetNamespace = "http://server.org/v2/")
+@SOAPBinding(style = Style.DOCUMENT, use = Use.LITERAL, parameterStyle = ParameterStyle.WRAPPED)
+public interface ShareMarketServerV2 {
+    // Admin Operations
+    @WebMethod
+    OperationResult addShare(@WebParam(name = "shareID")String shareID, @WebParam(name = "shareType")String shareType,
+                             @WebParam(name = "capacity") int capacity);
+
+    @WebMethod
+    OperationResult removeShare(@WebParam(name = "shareID")String shareID, @WebParam(name = "shareType")String shareType);
+
+    // Empty when the market has no shares of the type
+    @WebMethod
+    List<ShareAvailability> listShareAvailability(@WebParam(name = "shareType")String shareType);
+
+    @WebMethod
+    OperationResult purchaseRemoteShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
+                                        @WebParam(name = "shareType")String shareType, @WebParam(name = "shareCount")int shareCount,
+                                        @WebParam(name = "targetMarket")String targetMarket);
+
+    @WebMethod
+    OperationResult sellRemoteShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
+                                    @WebParam(name = "shareType")String shareType, @WebParam(name = "shareCount")int shareCount,
+                                    @WebParam(name = "targetMarket")String targetMarket);
+
+
+    // Buyer Operations
+    @WebMethod
+    OperationResult purchaseShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
+                                  @WebParam(name = "shareType")String shareType, @WebParam(name = "shareCount")int shareCount);
+
+    // Empty when the buyer holds nothing here
+    @WebMethod
+    List<Holding> getShares(@WebParam(name = "buyerID")String buyerID);
+
+    @WebMethod
+    OperationResult sellShare(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "shareID")String shareID,
+                              @WebParam(name = "shareType")String shareType,
+                              @WebParam(name = "shareCount")int shareCount);
+
+    // Applies the orders in order for one buyer; each gets its own result
+    @WebMethod
+    List<OperationResult> executeOrders(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "orders")List<TradeOrder> orders);
+
+    @WebMethod
+    OperationResult swapShares(@WebParam(name = "buyerID")String buyerID, @WebParam(name = "oldShareID")String oldShareID,
+                               @WebParam(name = "oldShareType")String oldShareType, @WebParam(name = "newShareID")String newShareID,
+                               @WebParam(name = "newShareType")String newShareType);
+}
@@ -0,0 +1,68 @@
+package org.server;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.jws.WebService;
+
+// The version 2 endpoint of a market. It shares the market's state, locks and
+// journal with the version 1 endpoint and only changes how results are returned.
+@WebService(endpointInterface = "org.server.ShareMarketServerV2", serviceName = "ShareMarketServerV2Service",
+        targetNamespace = "http://server.org/v2/")
+public class ShareMarketServerV2Impl implements ShareMarketServerV2 {
+
+    private final ShareMarketServerImpl market;
+
+    public ShareMarketServerV2Impl(ShareMarketServerImpl market) {
+        this.market = market;
+    }
+
+    @Override
+    public OperationResult addShare(String shareID, String shareType, int capacity) {
+        return market.add(shareID, shareType, capacity);
+    }
+
+    @Override
+    public OperationResult removeShare(String shareID, String shareType) {
+        return market.remove(shareID, shareType);
+    }
+
+    @Override
+    public List<ShareAvailability> listShareAvailability(String shareType) {
+        return market.availability(shareType);
+    }
+
+    @Override
+    public OperationResult purchaseRemoteShare(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
+        return market.purchaseRemote(buyerID, shareID, shareType, shareCount, targetMarket);
+    }
+
+    @Override
+    public OperationResult sellRemoteShare(String buyerID, String shareID, String shareType, int shareCount, String targetMarket) {
+        return market.sellRemote(buyerID, shareID, shareType, shareCount, targetMarket);
+    }
+
+    @Override
+    public OperationResult purchaseShare(String buyerID, String shareID, String shareType, int shareCount) {
+        return market.purchase(buyerID, shareID, shareType, shareCount);
+    }
+
+    @Override
+    public List<Holding> getShares(String buyerID) {
+        return market.holdings(buyerID);
+    }
+
+    @Override
+    public OperationResult sellShare(String buyerID, String shareID, String shareType, int shareCount) {
+        return market.sell(buyerID, shareID, shareType, shareCount);
+    }
+
+    @Override
+    public List<OperationResult> executeOrders(String buyerID, List<TradeOrder> orders) {
+        return Arrays.asList(market.execute(buyerID, orders == null ? null : orders.toArray(new TradeOrder[0])));
+    }
+
+    @Override
+    public OperationResult swapShares(String buyerID, String oldShareID, String oldShareType, String newShareID, String newShareType) {
+        return market.swap(buyerID, oldShareID, oldShareType, newShareID, newShareType);
+    }
+}
@@ -0,0 +1,245 @@
+package org.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+// Point-in-time copy of a market's shares and buyer holdings, written as
+// snapshot-<segment>.dat next to the journal segments and only renamed into place
+// once fully synced. New snapshots use the memory-mapped version 2 layout (see
+// MappedSnapshot); version 1 files, a DataOutputStream dump ending in a CRC32, can
+// still be loaded.
+public class SnapshotFile {
+
+    private static final int MAGIC = 0x44534D53; // "DSMS"
+    private static final int VERSION_1 = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".dat";
+
+    static class ShareRow {
+        final String shareType;
+        final String shareID;
+        final int availableCapacity;
+        final int totalCapacity;
+        final String originMarket;
+
+        ShareRow(Share share, int held) {
+            this.shareType = share.getShareType();
+            this.shareID = share.getShareID();
+            this.availableCapacity = share.getAvailableCapacity() + held;
+            this.totalCapacity = share.getTotalCapacity();
+            this.originMarket = share.getOriginMarket();
+        }
+    }
+
+    static class State {
+        final List<ShareRow> shares = new ArrayList<>();
+        // Buyers that live on the heap, including emptied ones that must hide their
+        // entry in base; every other buyer is copied unchanged from base
+        final Map<String, Map<String, Integer>> holdings = new HashMap<>();
+        MappedSnapshot base;
+    }
+
+    // Caller must keep the market from mutating while this runs
+    static State capture(ShareMarketServerImpl market) {
+        State state = new State();
+        // Holds for other markets' swaps are not journaled, so their capacity is free
+        Map<Share, Integer> held = new HashMap<>();
+        for (ShareMarketServerImpl.SwapHold hold : market.getSwapHolds().values()) {
+            held.merge(hold.share, hold.count, Integer::sum);
+        }
+        for (Map<String, Share> sharesOfType : market.getShareDatabase().values()) {
+            for (Share share : sharesOfType.values()) {
+                state.shares.add(new ShareRow(share, held.getOrDefault(share, 0)));
+            }
+        }
+        for (Map.Entry<String, Map<String, Integer>> buyer : market.getBuyerHoldings().entrySet()) {
+            state.holdings.put(buyer.getKey(), new HashMap<>(buyer.getValue()));
+        }
+        // A swap waiting on a peer has not been journaled, so its holding still counts
+        for (Map.Entry<String, Map<String, Integer>> buyer : market.getPendingSwapOuts().entrySet()) {
+            Map<String, Integer> holdings = state.holdings.computeIfAbsent(buyer.getKey(), id -> new HashMap<>());
+            for (Map.Entry<String, Integer> pending : buyer.getValue().entrySet()) {
+                holdings.merge(pending.getKey(), pending.getValue(), Integer::sum);
+            }
+        }
+        state.base = market.getSnapshotView();
+        return state;
+    }
+
+    static Path write(Path directory, long segment, State state) throws IOException {
+        Path target = directory.resolve(PREFIX + segment + SUFFIX);
+        Path temp = directory.resolve(PREFIX + segment + SUFFIX + ".tmp");
+        List<byte[]> heapBuyers = new ArrayList<>(state.holdings.size());
+        Map<ByteKey, String> names = new HashMap<>();
+        for (String buyerID : state.holdings.keySet()) {
+            byte[] key = buyerID.getBytes(StandardCharsets.UTF_8);
+            heapBuyers.add(key);
+            names.put(new ByteKey(key), buyerID);
+        }
+        heapBuyers.sort(Arrays::compareUnsigned);
+
+        try (SnapshotWriter writer = new SnapshotWriter(temp)) {
+            for (ShareRow row : state.shares) {
+                writer.writeShare(row.shareType, row.shareID, row.availableCapacity, row.totalCapacity, row.originMarket);
+            }
+            // Merge the sorted heap buyers with the sorted buyers of the base snapshot
+            MappedSnapshot base = state.base;
+            int baseCount = base == null ? 0 : base.getBuyerCount();
+            int b = 0;
+            for (byte[] key : heapBuyers) {
+                while (b < baseCount && base.compareBuyer(b, key) < 0) {
+                    writer.copyBuyer(base, b++);
+                }
+                if (b < baseCount && base.compareBuyer(b, key) == 0) {
+                    b++;
+                }
+                Map<String, Integer> holdings = state.holdings.get(names.get(new ByteKey(key)));
+                if (!holdings.isEmpty()) {
+                    writer.writeBuyer(names.get(new ByteKey(key)), holdings);
+                }
+            }
+            while (b < baseCount) {
+                writer.copyBuyer(base, b++);
+            }
+            writer.finish(segment);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    private static class ByteKey {
+        private final byte[] bytes;
+
+        ByteKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ByteKey && Arrays.equals(bytes, ((ByteKey) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    // Loads the newest snapshot into market and returns the segment it covers up
+    // to, or 0 when there is none. A version 2 snapshot only has its shares read
+    // here; holdings are faulted in per buyer from the mapping. An unreadable one
+    // fails startup: the segments an older snapshot would need were deleted once
+    // it was written, so falling back would silently lose trades.
+    static long loadLatest(Path directory, ShareMarketServerImpl market) throws IOException {
+        TreeMap<Long, Path> snapshots = list(directory);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        long segment = snapshots.lastKey();
+        Path file = snapshots.get(segment);
+        try {
+            if (readVersion(file) == VERSION_1) {
+                readVersion1(file, market);
+            } else {
+                MappedSnapshot view = MappedSnapshot.open(file);
+                view.loadShares(market.getShareDatabase());
+                market.attachSnapshot(view);
+            }
+            return segment;
+        } catch (IOException e) {
+            throw new IOException("Newest snapshot " + file + " is unreadable (" + e
+                    + "); the log it continues from is gone, so the market will not start without it", e);
+        }
+    }
+
+    private static int readVersion(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a snapshot");
+            }
+            return in.readInt();
+        }
+    }
+
+    private static void readVersion1(Path file, ShareMarketServerImpl market) throws IOException {
+        Map<String, Map<String, Share>> shares = new HashMap<>();
+        Map<String, Map<String, Integer>> holdings = new HashMap<>();
+        CRC32 crc = new CRC32();
+        try (BufferedInputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION_1) {
+                throw new IOException("not a version " + VERSION_1 + " snapshot");
+            }
+            in.readLong();
+            int shareCount = in.readInt();
+            for (int i = 0; i < shareCount; i++) {
+                String shareType = in.readUTF();
+                String shareID = in.readUTF();
+                int available = in.readInt();
+                int total = in.readInt();
+                String origin = in.readUTF();
+                shares.computeIfAbsent(shareType, t -> new ConcurrentHashMap<>())
+                        .put(shareID, new Share(shareID, shareType, available, total, origin.isEmpty() ? null : origin));
+            }
+            int buyerCount = in.readInt();
+            for (int i = 0; i < buyerCount; i++) {
+                String buyerID = in.readUTF();
+                int holdingCount = in.readInt();
+                Map<String, Integer> buyer = new ConcurrentHashMap<>();
+                for (int j = 0; j < holdingCount; j++) {
+                    String shareKey = in.readUTF();
+                    buyer.put(shareKey, in.readInt());
+                }
+                holdings.put(buyerID, buyer);
+            }
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(raw).readInt() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+        }
+        // Only touch the market once the whole file has checked out
+        for (Map.Entry<String, Map<String, Share>> type : shares.entrySet()) {
+            market.getShareDatabase().computeIfAbsent(type.getKey(), t -> new ConcurrentHashMap<>()).putAll(type.getValue());
+        }
+        market.getBuyerHoldings().putAll(holdings);
+    }
+
+    static void deleteOlderThan(Path directory, long segment) throws IOException {
+        for (Map.Entry<Long, Path> entry : list(directory).entrySet()) {
+            if (entry.getKey() < segment) {
+                try {
+                    Files.deleteIfExists(entry.getValue());
+                } catch (IOException e) {
+                    // Platforms that lock mapped files refuse until the old view is collected
+                    System.err.println("Could not delete old snapshot " + entry.getValue() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static TreeMap<Long, Path> list(Path directory) throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                snapshots.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+            }
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,171 @@
+package org.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Streams a version 2 snapshot (see MappedSnapshot for the layout). Shares must be
+// written first, then buyers in ascending unsigned-byte order of their IDs, then
+// finish() writes the index and header and syncs the file.
+public class SnapshotWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 bodyCrc = new CRC32();
+    private long position = MappedSnapshot.HEADER_SIZE;
+    private int shareCount;
+    private int buyerCount;
+    private long holdingCount;
+    private int[] index = new int[3 * 1024];
+    private byte[] lastBuyer;
+    private boolean buyersStarted;
+    private long buyersOffset = -1;
+
+    public SnapshotWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(MappedSnapshot.HEADER_SIZE);
+    }
+
+    public void writeShare(String shareType, String shareID, int availableCapacity, int totalCapacity, String originMarket) throws IOException {
+        if (buyersStarted) {
+            throw new IllegalStateException("shares must be written before buyers");
+        }
+        putString(shareType);
+        putString(shareID);
+        ensure(8);
+        out.putInt(availableCapacity).putInt(totalCapacity);
+        position += 8;
+        putString(originMarket == null ? "" : originMarket);
+        shareCount++;
+    }
+
+    public void writeBuyer(String buyerID, Map<String, Integer> holdings) throws IOException {
+        startBuyer(buyerID.getBytes(StandardCharsets.UTF_8), holdings.size());
+        for (Map.Entry<String, Integer> holding : holdings.entrySet()) {
+            putString(holding.getKey());
+            ensure(4);
+            out.putInt(holding.getValue());
+            position += 4;
+        }
+    }
+
+    // Copies one buyer unchanged from an older snapshot
+    void copyBuyer(MappedSnapshot from, int buyerIndex) throws IOException {
+        startBuyer(from.buyerKey(buyerIndex), from.holdingCountAt(buyerIndex));
+        ByteBuffer raw = from.holdingsBytes(buyerIndex);
+        while (raw.hasRemaining()) {
+            ensure(1);
+            int chunk = Math.min(raw.remaining(), out.remaining());
+            ByteBuffer slice = raw.duplicate();
+            slice.limit(slice.position() + chunk);
+            out.put(slice);
+            raw.position(raw.position() + chunk);
+            position += chunk;
+        }
+    }
+
+    private void startBuyer(byte[] key, int holdings) throws IOException {
+        if (lastBuyer != null && Arrays.compareUnsigned(lastBuyer, key) >= 0) {
+            throw new IllegalArgumentException("buyers must be written in ascending order");
+        }
+        if (!buyersStarted) {
+            buyersStarted = true;
+            buyersOffset = position;
+        }
+        lastBuyer = key;
+        checkSize();
+        int nameOffset = (int) position;
+        putBytes(key);
+        if (index.length < (buyerCount + 1) * 3) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[buyerCount * 3] = nameOffset;
+        index[buyerCount * 3 + 1] = (int) position;
+        index[buyerCount * 3 + 2] = holdings;
+        buyerCount++;
+        holdingCount += holdings;
+    }
+
+    public void finish(long segment) throws IOException {
+        if (!buyersStarted) {
+            buyersOffset = position;
+        }
+        int indexOffset = (int) position;
+        for (int i = 0; i < buyerCount; i++) {
+            ensure(MappedSnapshot.INDEX_ENTRY_SIZE);
+            out.putInt(index[i * 3]).putInt(index[i * 3 + 1]).putInt(index[i * 3 + 2]).putInt(0);
+            position += MappedSnapshot.INDEX_ENTRY_SIZE;
+        }
+        checkSize();
+        drain();
+
+        ByteBuffer header = ByteBuffer.allocate(MappedSnapshot.HEADER_SIZE);
+        header.putInt(MappedSnapshot.MAGIC).putInt(MappedSnapshot.VERSION)
+                .putLong(segment)
+                .putInt(shareCount).putInt(buyerCount)
+                .putLong(holdingCount)
+                .putInt(MappedSnapshot.HEADER_SIZE)   // shares
+                .putInt((int) buyersOffset)
+                .putInt(indexOffset)
+                .putInt(0)
+                .putLong(position)                    // file length
+                .putInt((int) bodyCrc.getValue());
+        CRC32 headerCrc = new CRC32();
+        headerCrc.update(header.array(), 0, MappedSnapshot.HEADER_SIZE - 4);
+        header.putInt((int) headerCrc.getValue());
+        header.flip();
+        int written = 0;
+        while (header.hasRemaining()) {
+            written += channel.write(header, written);
+        }
+        channel.force(true);
+    }
+
+    private void putString(String value) throws IOException {
+        putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("string longer than 65535 bytes");
+        }
+        ensure(2 + bytes.length);
+        out.putShort((short) bytes.length).put(bytes);
+        position += 2 + bytes.length;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    private void checkSize() throws IOException {
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("snapshot would exceed 2 GB");
+        }
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        ByteBuffer forCrc = out.duplicate();
+        bodyCrc.update(forCrc);
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
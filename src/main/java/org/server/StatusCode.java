@@ -0,0 +1,17 @@
+package org.server;
+
+// What happened to an operation, for clients of ShareMarketServerV2 to branch on
+// instead of parsing the message.
+public enum StatusCode {
+    OK,
+    NOT_FOUND,
+    ALREADY_EXISTS,
+    INSUFFICIENT_CAPACITY,
+    INSUFFICIENT_HOLDINGS,
+    UNAVAILABLE,
+    INVALID_REQUEST,
+    REMOTE_FAILURE,
+    // Another market was asked but did not answer in time, so it may or may not
+    // have done it
+    OUTCOME_UNKNOWN
+}
@@ -0,0 +1,55 @@
+package org.server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed array of locks that keys are hashed onto. Two keys may share a stripe,
+// so a caller holds at most one stripe of a given StripedLock at a time. With a
+// wait timer, every acquisition that finds its stripe held records how long it
+// blocked.
+public class StripedLock {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final MetricsRegistry.Timer waits;
+
+    public StripedLock(int minStripes) {
+        this(minStripes, null);
+    }
+
+    public StripedLock(int minStripes, MetricsRegistry.Timer waits) {
+        this.waits = waits;
+        int size = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public int stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    public void lock(Object key) {
+        acquire(stripes[stripeFor(key)]);
+    }
+
+    public void unlock(Object key) {
+        stripes[stripeFor(key)].unlock();
+    }
+
+    private void acquire(ReentrantLock stripe) {
+        if (waits == null) {
+            stripe.lock();
+        } else if (!stripe.tryLock()) {
+            long started = System.nanoTime();
+            stripe.lock();
+            waits.record(started, true);
+        }
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,89 @@
+package org.server;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A hashed timing wheel for many short timers that mostly never matter, such as
+// swap holds that are committed long before they would expire. schedule drops the
+// task into the slot its deadline falls in and one thread advances a tick at a
+// time, running what is due; there is no per-task thread or ordered queue. Tasks
+// run on that thread up to one tick late, must be quick and report their own
+// failures.
+public class TimingWheel {
+
+    private static class Entry {
+        final Runnable task;
+        final long deadlineTick;
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        Entry(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final Queue<Entry>[] slots;
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    // The last tick whose slot has been, or is being, run
+    private volatile long tick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(String name, long tickMillis, int slotCount) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.slots = new Queue[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        Thread worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void schedule(Runnable task, long delayMillis) {
+        long due = (System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos;
+        Entry entry = new Entry(task, Math.max(due, tick + 1));
+        slots[(int) (entry.deadlineTick % slots.length)].add(entry);
+        // The wheel may have passed this slot while the entry was being added
+        if (tick >= entry.deadlineTick) {
+            fire(entry);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long next = tick + 1;
+            long waitNanos = startNanos + next * tickNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick = next;
+            Iterator<Entry> entries = slots[(int) (next % slots.length)].iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.deadlineTick <= next) {
+                    entries.remove();
+                    fire(entry);
+                }
+            }
+        }
+    }
+
+    private void fire(Entry entry) {
+        if (!entry.claimed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            entry.task.run();
+        } catch (RuntimeException e) {
+            // Already reported by the task; the wheel keeps turning for the rest
+        }
+    }
+}
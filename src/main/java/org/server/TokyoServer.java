@@ -1,17 +1,24 @@
 package org.server;
 
-import javax.xml.ws.Endpoint;
-
 public class TokyoServer {
     public static void main(String[] args) {
         try {
             ShareMarketServerImpl serverImpl = new ShareMarketServerImpl("Tokyo", 5002);
 
-            // Publish the web service
-            Endpoint.publish("http://localhost:8082/ShareMarketService", serverImpl);
+            // Restore the market from its journal before taking requests
+            serverImpl.enablePersistence("data/Tokyo");
+
+            // Publish the web service on the configured request executor
+            EndpointExecutors.publish("http://localhost:8082/ShareMarketService", serverImpl);
+            EndpointExecutors.publish("http://localhost:8082/ShareMarketServiceV2", new ShareMarketServerV2Impl(serverImpl), "Tokyo");
 
             System.out.println("Tokyo ShareMarket Server ready at http://localhost:8082/ShareMarketService");
 
+            // JSON over HTTP for clients that skip SOAP
+            new JsonHttpEndpoint(serverImpl, 8092).start();
+            System.out.println("Tokyo JSON endpoint ready at http://localhost:8092/market/");
+            System.out.println("Tokyo metrics at http://localhost:8092/metrics");
+
             serverImpl.addRemoteServer("NewYork", 5000);
             serverImpl.addRemoteServer("London", 5001);
 
@@ -19,6 +26,9 @@ public class TokyoServer {
             UDPServerThread udpThread = new UDPServerThread(5002, serverImpl, serverImpl.getShareDatabase());
             udpThread.start();
 
+            // Inventory and internals for jconsole and other JMX clients
+            MarketMonitor.register(serverImpl, udpThread);
+
         } catch (Exception e) {
             System.err.println("ERROR: " + e);
             e.printStackTrace(System.out);
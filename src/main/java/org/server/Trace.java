@@ -0,0 +1,73 @@
+package org.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+// The traced request a thread is working on, identified by the correlation ID
+// the client created. A request is traced when it arrives with an ID (a SOAP
+// header, a UDP message field or an X-Correlation-Id HTTP header) and this JVM
+// runs with -Dmarket.trace=true. From then on every MetricsRegistry timer that
+// fires on the thread (operations, lock waits, remote calls, UDP commands) also
+// writes a span to the market's TraceLog. Calls to other markets carry the ID on,
+// so each market's trace file holds its own part of the request and TraceQuery
+// puts the parts back together.
+public final class Trace {
+
+    public static final boolean ENABLED = Boolean.getBoolean("market.trace");
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    // IDs come from clients and end up in trace files, one tab-separated line per
+    // span, so anything else is dropped and the request goes untraced
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final String id;
+    private final TraceLog log;
+
+    private Trace(String id, TraceLog log) {
+        this.id = id;
+        this.log = log;
+    }
+
+    public static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    public static boolean isValidId(String id) {
+        return id != null && VALID_ID.matcher(id).matches();
+    }
+
+    // A trace of request id in market's trace file; not current until resumed.
+    // Callers check the ID with isValidId first.
+    public static Trace of(String id, String market) {
+        return new Trace(id, TraceLog.forMarket(market));
+    }
+
+    public static Trace current() {
+        return CURRENT.get();
+    }
+
+    public static String currentId() {
+        Trace trace = CURRENT.get();
+        return trace == null ? null : trace.id;
+    }
+
+    // Makes trace (or none, for null) current on this thread and returns the one it
+    // replaces, which the caller hands back to resume when it is done
+    public static Trace resume(Trace trace) {
+        Trace previous = CURRENT.get();
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+        return previous;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void span(String name, long startedNanos, long endedNanos, boolean success) {
+        log.write(id, name, startedNanos, endedNanos, success);
+    }
+}
@@ -0,0 +1,132 @@
+package org.server;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.soap.SOAPElement;
+import javax.xml.soap.SOAPEnvelope;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPHeader;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPHandler;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+// Carries the correlation ID in a CorrelationId SOAP header.
+//
+// On a client port (no market) it adds the header to every request: the ID of
+// the thread's current trace when a market calls another one, or a new ID when
+// a client starts the request; lastId tells the client which. On an endpoint
+// (new TraceHandler(city)) it reads the header, makes the request's trace current
+// for the call and writes a "soap <operation>" span for the whole exchange.
+// Handlers make JAX-WS build a SAAJ view of each message, which is why they are
+// only installed when tracing is on.
+public class TraceHandler implements SOAPHandler<SOAPMessageContext> {
+
+    public static final QName HEADER = new QName("http://server.org/trace", "CorrelationId", "trace");
+
+    private static final String STARTED = TraceHandler.class.getName() + ".started";
+    private static final ThreadLocal<String> LAST_ID = new ThreadLocal<>();
+
+    private final String market;
+
+    // For client ports
+    public TraceHandler() {
+        this(null);
+    }
+
+    public TraceHandler(String market) {
+        this.market = market;
+    }
+
+    // The ID sent with this thread's last request
+    public static String lastId() {
+        return LAST_ID.get();
+    }
+
+    @Override
+    public Set<QName> getHeaders() {
+        return Collections.singleton(HEADER);
+    }
+
+    @Override
+    public boolean handleMessage(SOAPMessageContext context) {
+        boolean outbound = Boolean.TRUE.equals(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY));
+        if (market == null) {
+            if (outbound) {
+                addHeader(context.getMessage());
+            }
+        } else if (outbound) {
+            finish(context, true);
+        } else {
+            start(context);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean handleFault(SOAPMessageContext context) {
+        if (market != null) {
+            finish(context, false);
+        }
+        return true;
+    }
+
+    @Override
+    public void close(MessageContext context) {
+        // A request that failed before a reply was built still ends its trace
+        if (market != null && context.containsKey(STARTED)) {
+            Trace.resume(null);
+        }
+    }
+
+    private void addHeader(SOAPMessage message) {
+        String id = Trace.currentId();
+        if (id == null) {
+            id = Trace.newId();
+        }
+        try {
+            SOAPEnvelope envelope = message.getSOAPPart().getEnvelope();
+            SOAPHeader header = envelope.getHeader();
+            if (header == null) {
+                header = envelope.addHeader();
+            }
+            header.addHeaderElement(HEADER).addTextNode(id);
+            LAST_ID.set(id);
+        } catch (SOAPException e) {
+            System.err.println("Could not add the correlation ID header: " + e.getMessage());
+        }
+    }
+
+    private void start(SOAPMessageContext context) {
+        String id = null;
+        try {
+            SOAPHeader header = context.getMessage().getSOAPPart().getEnvelope().getHeader();
+            if (header != null) {
+                Iterator<?> elements = header.getChildElements(HEADER);
+                if (elements.hasNext()) {
+                    id = ((SOAPElement) elements.next()).getValue();
+                }
+            }
+        } catch (SOAPException e) {
+            System.err.println("Could not read the correlation ID header: " + e.getMessage());
+        }
+        if (id == null || !Trace.isValidId(id = id.trim())) {
+            return;
+        }
+        context.put(STARTED, System.nanoTime());
+        context.setScope(STARTED, MessageContext.Scope.HANDLER);
+        Trace.resume(Trace.of(id, market));
+    }
+
+    private void finish(SOAPMessageContext context, boolean success) {
+        Object started = context.remove(STARTED);
+        Trace trace = Trace.resume(null);
+        if (started != null && trace != null) {
+            QName operation = (QName) context.get(MessageContext.WSDL_OPERATION);
+            trace.span("soap " + (operation == null ? "request" : operation.getLocalPart()),
+                    (Long) started, System.nanoTime(), success);
+        }
+    }
+}
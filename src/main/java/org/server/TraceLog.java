@@ -0,0 +1,103 @@
+package org.server;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// A market's trace file, logs<city>_Trace.log unless market.trace.dir says
+// where. One tab-separated line per span:
+//   traceId  market  span  startMicros  durationMicros  OK|FAILED
+// startMicros is wall-clock time since the epoch, so spans from markets in other
+// JVMs on the same host line up to within clock resolution. Request threads only
+// queue spans; a writer thread formats and writes them, and a full queue
+// (market.trace.queue, default 65536) drops the span rather than delay a trade.
+public class TraceLog {
+
+    private static final Map<String, TraceLog> LOGS = new ConcurrentHashMap<>();
+
+    private static final class Span {
+        final String traceId;
+        final String name;
+        final long startedNanos;
+        final long endedNanos;
+        final boolean success;
+
+        Span(String traceId, String name, long startedNanos, long endedNanos, boolean success) {
+            this.traceId = traceId;
+            this.name = name;
+            this.startedNanos = startedNanos;
+            this.endedNanos = endedNanos;
+            this.success = success;
+        }
+    }
+
+    private final String market;
+    private final String path;
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(Integer.getInteger("market.trace.queue", 65536));
+    private final LongAdder dropped = new LongAdder();
+    // Anchors nanoTime to the wall clock once, so every span is converted the same way
+    private final long epochMicrosAtStart = System.currentTimeMillis() * 1000;
+    private final long nanosAtStart = System.nanoTime();
+
+    private TraceLog(String market) {
+        this.market = market;
+        this.path = System.getProperty("market.trace.dir", ".") + "/logs" + market + "_Trace.log";
+        Thread writer = new Thread(this::drainLoop, "trace-writer-" + market);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static TraceLog forMarket(String market) {
+        TraceLog log = LOGS.get(market);
+        return log != null ? log : LOGS.computeIfAbsent(market, TraceLog::new);
+    }
+
+    public void write(String traceId, String name, long startedNanos, long endedNanos, boolean success) {
+        if (!queue.offer(new Span(traceId, name, startedNanos, endedNanos, success))) {
+            dropped.increment();
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private void drainLoop() {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder(128);
+            while (true) {
+                Span span = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (span == null) {
+                    out.flush();
+                    continue;
+                }
+                line.setLength(0);
+                line.append(span.traceId).append('\t').append(market).append('\t').append(span.name).append('\t')
+                        .append(epochMicrosAtStart + (span.startedNanos - nanosAtStart) / 1000).append('\t')
+                        .append((span.endedNanos - span.startedNanos) / 1000).append('\t')
+                        .append(span.success ? "OK" : "FAILED").append('\n');
+                out.write(line.toString());
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Trace log " + path + " failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
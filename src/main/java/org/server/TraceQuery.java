@@ -0,0 +1,126 @@
+package org.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads the trace files of any number of markets and prints the slowest requests,
+// each with its spans in start order, so the hop that made it slow stands out:
+//   java org.server.TraceQuery logsNewYork_Trace.log logsLondon_Trace.log
+// -Dtrace.top=N prints N requests (default 10); -Dtrace.id=<id> prints just that
+// request. A request's time runs from its first span's start to the last span's
+// end, whichever market wrote them.
+public class TraceQuery {
+
+    static final class Span {
+        final String market;
+        final String name;
+        final long startMicros;
+        final long durationMicros;
+        final boolean success;
+
+        Span(String market, String name, long startMicros, long durationMicros, boolean success) {
+            this.market = market;
+            this.name = name;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+            this.success = success;
+        }
+
+        long endMicros() {
+            return startMicros + durationMicros;
+        }
+    }
+
+    static final class Request {
+        final String id;
+        final List<Span> spans = new ArrayList<>();
+        long startMicros = Long.MAX_VALUE;
+        long endMicros = Long.MIN_VALUE;
+
+        Request(String id) {
+            this.id = id;
+        }
+
+        void add(Span span) {
+            spans.add(span);
+            startMicros = Math.min(startMicros, span.startMicros);
+            endMicros = Math.max(endMicros, span.endMicros());
+        }
+
+        long durationMicros() {
+            return endMicros - startMicros;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceQuery <trace file>... (-Dtrace.top=10, -Dtrace.id=<id>)");
+            System.exit(1);
+        }
+        Map<String, Request> requests = new HashMap<>();
+        for (String file : args) {
+            read(file, requests);
+        }
+        String id = System.getProperty("trace.id");
+        List<Request> selected = new ArrayList<>();
+        if (id != null) {
+            Request request = requests.get(id);
+            if (request == null) {
+                System.err.println("No spans for trace " + id);
+                System.exit(1);
+            }
+            selected.add(request);
+        } else {
+            selected.addAll(requests.values());
+            selected.sort(Comparator.comparingLong(Request::durationMicros).reversed());
+            int top = Integer.getInteger("trace.top", 10);
+            if (selected.size() > top) {
+                selected = selected.subList(0, top);
+            }
+            System.out.println(requests.size() + " traced requests, slowest " + selected.size() + ":");
+        }
+        for (Request request : selected) {
+            print(request);
+        }
+    }
+
+    static void read(String file, Map<String, Request> requests) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    System.err.println(file + ":" + number + ": expected 6 fields, skipped");
+                    continue;
+                }
+                try {
+                    Span span = new Span(fields[1], fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                            "OK".equals(fields[5]));
+                    requests.computeIfAbsent(fields[0], Request::new).add(span);
+                } catch (NumberFormatException e) {
+                    System.err.println(file + ":" + number + ": " + e.getMessage() + ", skipped");
+                }
+            }
+        }
+    }
+
+    private static void print(Request request) {
+        System.out.printf("%nTrace %s  %.3f ms%n", request.id, request.durationMicros() / 1000.0);
+        request.spans.sort(Comparator.comparingLong((Span span) -> span.startMicros)
+                .thenComparing(Comparator.comparingLong((Span span) -> span.durationMicros).reversed()));
+        for (Span span : request.spans) {
+            System.out.printf("  +%9.3f ms %9.3f ms  %-8s %s%s%n", (span.startMicros - request.startMicros) / 1000.0,
+                    span.durationMicros / 1000.0, span.market, span.name, span.success ? "" : "  FAILED");
+        }
+    }
+}
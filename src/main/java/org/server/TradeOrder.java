@@ -0,0 +1,57 @@
+package org.server;
+
+// One purchase or sell in an executeOrders batch. A plain bean so JAX-WS can map
+// it to and from XML.
+public class TradeOrder {
+
+    public enum Side {
+        PURCHASE, SELL
+    }
+
+    private Side side;
+    private String shareID;
+    private String shareType;
+    private int quantity;
+
+    public TradeOrder() {
+    }
+
+    public TradeOrder(Side side, String shareID, String shareType, int quantity) {
+        this.side = side;
+        this.shareID = shareID;
+        this.shareType = shareType;
+        this.quantity = quantity;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public void setSide(Side side) {
+        this.side = side;
+    }
+
+    public String getShareID() {
+        return shareID;
+    }
+
+    public void setShareID(String shareID) {
+        this.shareID = shareID;
+    }
+
+    public String getShareType() {
+        return shareType;
+    }
+
+    public void setShareType(String shareType) {
+        this.shareType = shareType;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+}
@@ -0,0 +1,32 @@
+package org.server;
+
+// The outcome of one TradeOrder, at the same index as the order in its batch.
+public class TradeResult {
+
+    private boolean success;
+    private String message;
+
+    public TradeResult() {
+    }
+
+    public TradeResult(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,190 @@
+package org.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// One long-lived channel to a peer market's UDP server, shared by every request to
+// that peer. Each request carries an id and a receiver thread hands replies to the
+// matching future, so any number can be outstanding at once. A request that gets
+// no reply is resent after market.udp.retryBaseMs, doubling each time, up to
+// market.udp.maxAttempts sends in all, and fails once its deadline has passed.
+// Resending EXECUTE_SWAP is safe because peers answer a repeated id from their
+// reply cache instead of running it again.
+public class UDPPeerClient implements Closeable {
+
+    private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "udp-peer-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Pending {
+        final PeerMessage request;
+        final CompletableFuture<String> reply = new CompletableFuture<>();
+        final long deadlineNanos;
+        int attempts;
+
+        Pending(PeerMessage request, long deadlineNanos) {
+            this.request = request;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    private final String market;
+    private final DatagramChannel channel;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    // Random start so a restarted market doesn't reuse ids a peer still has cached
+    private final AtomicLong nextId = new AtomicLong(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2));
+    private final int maxAttempts = Integer.getInteger("market.udp.maxAttempts", 3);
+    private final long retryBaseMillis = Long.getLong("market.udp.retryBaseMs", 200);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder lateReplies = new LongAdder();
+
+    public UDPPeerClient(String market, String host, int port) throws IOException {
+        this.market = market;
+        this.channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(host, port));
+        Thread receiver = new Thread(this::receiveLoop, "udp-peer-" + market);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // Completes with the reply text, or exceptionally with an IOException once
+    // timeoutMillis have passed without one. Cancelling the future stops any
+    // further retries and drops the reply if it still comes.
+    public CompletableFuture<String> send(PeerMessage request, long timeoutMillis) {
+        request.requestId = nextId.incrementAndGet();
+        Pending call = new Pending(request, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        pending.put(request.requestId, call);
+        call.reply.whenComplete((reply, e) -> {
+            if (call.reply.isCancelled()) {
+                pending.remove(request.requestId);
+            }
+        });
+        transmit(call);
+        return call.reply;
+    }
+
+    private void transmit(Pending call) {
+        ByteBuffer out = BufferPool.DATAGRAMS.acquire();
+        try {
+            call.request.encode(out, true);
+            out.flip();
+            call.attempts++;
+            channel.write(out);
+            sent.increment();
+        } catch (IOException e) {
+            // Counted as a lost send; the retry timer below decides what happens next
+        } catch (RuntimeException e) {
+            fail(call, new IOException("Could not encode request: " + e.getMessage()));
+            return;
+        } finally {
+            BufferPool.DATAGRAMS.release(out);
+        }
+        long remaining = call.deadlineNanos - System.nanoTime();
+        long backoff = TimeUnit.MILLISECONDS.toNanos(retryBaseMillis << Math.min(call.attempts - 1, 16));
+        boolean finalAttempt = call.attempts >= maxAttempts || backoff >= remaining;
+        TIMER.schedule(() -> onNoReply(call, finalAttempt), finalAttempt ? Math.max(0, remaining) : backoff, TimeUnit.NANOSECONDS);
+    }
+
+    private void onNoReply(Pending call, boolean finalAttempt) {
+        if (call.reply.isDone()) {
+            return;
+        }
+        lost.increment();
+        if (finalAttempt) {
+            timeouts.increment();
+            fail(call, new IOException("no reply from " + market + " after " + call.attempts + " attempts"));
+            return;
+        }
+        retries.increment();
+        transmit(call);
+    }
+
+    private void fail(Pending call, IOException e) {
+        pending.remove(call.request.requestId);
+        call.reply.completeExceptionally(e);
+    }
+
+    private void receiveLoop() {
+        ByteBuffer in = ByteBuffer.allocateDirect(BufferPool.MAX_DATAGRAM);
+        PeerMessage reply = new PeerMessage();
+        while (true) {
+            try {
+                in.clear();
+                channel.read(in);
+                in.flip();
+                reply.decode(in);
+            } catch (PortUnreachableException e) {
+                // The peer isn't up; its requests time out or succeed on a retry
+                continue;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("UDP receive from " + market + " failed: " + e.getMessage());
+                continue;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Malformed UDP reply from " + market + ": " + e.getMessage());
+                continue;
+            }
+            Pending call = reply.command == PeerMessage.REPLY ? pending.remove(reply.requestId) : null;
+            if (call == null) {
+                // A duplicate, or an answer to a request that already timed out
+                lateReplies.increment();
+                continue;
+            }
+            call.reply.complete(reply.text);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        for (Pending call : pending.values()) {
+            fail(call, new IOException("connection to " + market + " closed"));
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    // Sends that went unanswered within their retry interval
+    public long getLostCount() {
+        return lost.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getLateReplyCount() {
+        return lateReplies.sum();
+    }
+}
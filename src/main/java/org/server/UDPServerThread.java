@@ -1,18 +1,68 @@
 package org.server;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.HashMap;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+// Peer-market requests over UDP. This thread only receives: each datagram lands
+// in a pooled buffer and is handed to one of market.udp.workers worker threads,
+// which decode it, run it and send the reply on the shared channel themselves.
+// When the worker queue (market.udp.queue) is full the datagram is dropped, as
+// the network could have done; the sender times out and may retry.
+// market.udp.workers=0 handles every request on this thread, one at a time.
+// Replies to binary EXECUTE_SWAP, PREPARE_SWAP and COMMIT_SWAP requests are kept
+// for market.udp.replyCacheSec by sender and request id, so a retransmitted one
+// gets the first answer again instead of being run a second time.
 public class UDPServerThread extends Thread {
+
     private final int udpPort;
     private final ShareMarketServerImpl serverImpl;
     private final Map<String, Map<String, Share>> shareDatabase;
+    private final int workerCount = Integer.getInteger("market.udp.workers",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private final BufferPool buffers = BufferPool.DATAGRAMS;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile DatagramChannel channel;
+    private volatile ThreadPoolExecutor workers;
+    // Each worker decodes into its own message to avoid allocating one per datagram
+    private final ThreadLocal<PeerMessage> messages = ThreadLocal.withInitial(PeerMessage::new);
+    private final Map<String, SwapReply> swapReplies = new ConcurrentHashMap<>();
+    // The same replies oldest first, so pruning only ever looks at expired ones
+    private final Queue<SwapReply> swapReplyOrder = new ConcurrentLinkedQueue<>();
+    private final long replyCacheNanos = TimeUnit.SECONDS.toNanos(Long.getLong("market.udp.replyCacheSec", 60));
+    private final LongAdder duplicates = new LongAdder();
+    // udp_command timers by command byte, looked up on a command's first use
+    private final MetricsRegistry.Timer[] commandTimers = new MetricsRegistry.Timer[256];
+
+    private static class SwapReply {
+        final String key;
+        final long receivedNanos = System.nanoTime();
+        // Null while the first copy of the request is still running; set on every
+        // way out of it, so a retransmission never waits on a reply that won't come
+        volatile String text;
+
+        SwapReply(String key) {
+            this.key = key;
+        }
+    }
 
     public UDPServerThread(int udpPort, ShareMarketServerImpl serverImpl, Map<String, Map<String, Share>> shareDatabase) {
+        super("udp-" + udpPort);
         this.udpPort = udpPort;
         this.serverImpl = serverImpl;
         this.shareDatabase = shareDatabase;
@@ -20,137 +70,241 @@ public class UDPServerThread extends Thread {
 
     @Override
     public void run() {
-        try (DatagramSocket socket = new DatagramSocket(udpPort)) {
-            System.out.println("UDP Server is running on port " + udpPort);
-            byte[] buffer = new byte[4096];
+        ThreadPoolExecutor workers = null;
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.bind(new InetSocketAddress(udpPort));
+            this.channel = channel;
+            if (workerCount > 0) {
+                AtomicInteger count = new AtomicInteger();
+                workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(Integer.getInteger("market.udp.queue", 4096)), r -> {
+                            Thread t = new Thread(r, "udp-" + udpPort + "-worker-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }, new ThreadPoolExecutor.AbortPolicy());
+                this.workers = workers;
+            }
+            System.out.println("UDP Server is running on port " + udpPort + " with " + workerCount + " workers");
 
             while (true) {
-                DatagramPacket request = new DatagramPacket(buffer, buffer.length);
-                socket.receive(request);
-
-                String receivedMessage = new String(request.getData(), 0, request.getLength());
-                InetAddress clientAddress = request.getAddress();
-                int clientPort = request.getPort();
-
-                // Process request and generate response
-                String responseMessage = processUDPRequest(receivedMessage);
-
-                // Send response back
-                byte[] responseBytes = responseMessage.getBytes();
-                DatagramPacket response = new DatagramPacket(responseBytes, responseBytes.length,
-                        clientAddress, clientPort);
-                socket.send(response);
+                ByteBuffer request = buffers.acquire();
+                SocketAddress client = channel.receive(request);
+                received.increment();
+                request.flip();
+                if (workers == null) {
+                    handle(channel, request, client);
+                    continue;
+                }
+                try {
+                    workers.execute(() -> handle(channel, request, client));
+                } catch (RejectedExecutionException e) {
+                    dropped.increment();
+                    buffers.release(request);
+                }
             }
+        } catch (ClosedChannelException e) {
+            System.out.println("UDP Server on port " + udpPort + " stopped");
         } catch (IOException e) {
             System.err.println("UDP Server Error: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            if (workers != null) {
+                workers.shutdown();
+            }
         }
     }
 
-    private String processUDPRequest(String request) {
-        String[] parts = request.split(" ");
-        String command = parts[0];
-
-        switch (command) {
-            case "LIST_AVAILABILITY":
-                if (parts.length < 2) return "INVALID_REQUEST_FORMAT";
-                String shareType = parts[1];
-                return getLocalShareAvailability(shareType);
-
-            case "CHECK_SWAP_AVAILABILITY":
-                if (parts.length < 4) return "INVALID_REQUEST_FORMAT";
-                String shareID = parts[1];
-                shareType = parts[2];
-                int requiredCount = Integer.parseInt(parts[3]);
-                return checkSwapAvailability(shareID, shareType, requiredCount);
-
-            case "EXECUTE_SWAP":
-                if (parts.length < 7) return "INVALID_REQUEST_FORMAT";
-                String buyerID = parts[1];
-                String oldShareID = parts[2];
-                String oldShareType = parts[3];
-                String newShareID = parts[4];
-                String newShareType = parts[5];
-                int shareCount = Integer.parseInt(parts[6]);
-                return executeSwap(buyerID, oldShareID, oldShareType, newShareID, newShareType, shareCount);
+    private void handle(DatagramChannel channel, ByteBuffer request, SocketAddress client) {
+        PeerMessage message = messages.get();
+        // Process request and generate response; a malformed request still gets an
+        // answer so the sender isn't left waiting for one
+        String responseMessage;
+        try {
+            message.decode(request);
+            responseMessage = message.binary && changesState(message.command)
+                    ? executeOnce(message, client) : processUDPRequest(message);
+        } catch (IllegalArgumentException e) {
+            responseMessage = "INVALID_REQUEST_FORMAT";
+        } finally {
+            buffers.release(request);
+        }
+        if (responseMessage == null) {
+            // A retransmission of a swap that is still running; its reply answers both
+            return;
+        }
 
-            default:
-                return "INVALID_REQUEST";
+        // Send the response back in the format the request came in
+        message.reply(responseMessage);
+        ByteBuffer response = buffers.acquire();
+        try {
+            try {
+                message.encode(response, message.binary);
+            } catch (BufferOverflowException e) {
+                response.clear();
+                message.reply("FAILED:Reply larger than one datagram");
+                message.encode(response, message.binary);
+            }
+            response.flip();
+            channel.send(response, client);
+        } catch (IOException e) {
+            System.err.println("UDP reply to " + client + " failed: " + e.getMessage());
+        } finally {
+            buffers.release(response);
         }
     }
 
-    private String getLocalShareAvailability(String shareType) {
-        StringBuilder result = new StringBuilder();
-        synchronized (shareDatabase) {
-            if (shareDatabase.containsKey(shareType)) {
-                for (Share share : shareDatabase.get(shareType).values()) {
-                    result.append("Share: ").append(share.getShareID())
-                            .append(", Type: ").append(share.getShareType())
-                            .append(", Available: ").append(share.getAvailableCapacity())
-                            .append("\n");
-                }
-            }
+    private static boolean changesState(byte command) {
+        return command == PeerMessage.EXECUTE_SWAP || command == PeerMessage.PREPARE_SWAP
+                || command == PeerMessage.COMMIT_SWAP;
+    }
+
+    private String executeOnce(PeerMessage message, SocketAddress client) {
+        String key = client + "#" + message.requestId;
+        SwapReply fresh = new SwapReply(key);
+        SwapReply earlier = swapReplies.putIfAbsent(key, fresh);
+        if (earlier != null) {
+            duplicates.increment();
+            return earlier.text;
         }
-        return result.toString().trim();
+        swapReplyOrder.add(fresh);
+        pruneSwapReplies();
+        String text = "FAILED:Request failed on the server";
+        try {
+            text = processUDPRequest(message);
+        } catch (RuntimeException e) {
+            System.err.println("UDP " + PeerMessage.commandName(message.command) + " failed: " + e);
+        } finally {
+            fresh.text = text;
+        }
+        return text;
     }
 
-    private String checkSwapAvailability(String shareID, String shareType, int requiredCount) {
-        synchronized (shareDatabase) {
-            if (!shareDatabase.containsKey(shareType) ||
-                    !shareDatabase.get(shareType).containsKey(shareID)) {
-                return "NOT_AVAILABLE:Share not found";
+    // Drops expired replies from the head of the arrival order; it stops at the
+    // first live one, so a request costs only the entries that expired
+    private void pruneSwapReplies() {
+        long now = System.nanoTime();
+        SwapReply oldest;
+        while ((oldest = swapReplyOrder.peek()) != null && now - oldest.receivedNanos > replyCacheNanos) {
+            if (swapReplyOrder.remove(oldest)) {
+                swapReplies.remove(oldest.key, oldest);
             }
+        }
+    }
+
+    // Closes the channel, which ends run()
+    public void shutdown() throws IOException {
+        DatagramChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    // Datagrams waiting for a worker
+    public int getQueueDepth() {
+        ThreadPoolExecutor current = workers;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    public void resetCounts() {
+        received.reset();
+        dropped.reset();
+        duplicates.reset();
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
 
-            Share share = shareDatabase.get(shareType).get(shareID);
-            if (share.getAvailableCapacity() < requiredCount) {
-                return "NOT_AVAILABLE:Not enough shares available. Required: " + requiredCount +
-                        ", Available: " + share.getAvailableCapacity();
+    // Timed per command; replies that say FAILED or INVALID count as failures. A
+    // request carrying a correlation ID runs as part of that trace.
+    private String processUDPRequest(PeerMessage request) {
+        Trace previous = Trace.ENABLED && Trace.isValidId(request.traceId)
+                ? Trace.resume(Trace.of(request.traceId, serverImpl.getCity())) : null;
+        try {
+            long started = System.nanoTime();
+            String reply = dispatch(request);
+            commandTimer(request.command).record(started, !reply.startsWith("FAILED") && !reply.startsWith("INVALID"));
+            return reply;
+        } finally {
+            if (Trace.ENABLED) {
+                Trace.resume(previous);
             }
+        }
+    }
 
-            return "AVAILABLE:Share available for swap";
+    // Timer's fields are final, so a racing first use at worst looks it up twice
+    private MetricsRegistry.Timer commandTimer(byte command) {
+        MetricsRegistry.Timer timer = commandTimers[command & 0xFF];
+        if (timer == null) {
+            timer = serverImpl.getMetrics().timer("udp_command", PeerMessage.commandName(command));
+            commandTimers[command & 0xFF] = timer;
         }
+        return timer;
     }
 
-    private String executeSwap(String buyerID, String oldShareID, String oldShareType,
-                               String newShareID, String newShareType, int shareCount) {
-        synchronized (shareDatabase) {
-            try {
-                // Double-check availability
-                if (!shareDatabase.containsKey(newShareType) ||
-                        !shareDatabase.get(newShareType).containsKey(newShareID)) {
-                    return "FAILED:New share not found";
-                }
+    private String dispatch(PeerMessage request) {
+        switch (request.command) {
+            case PeerMessage.LIST_AVAILABILITY:
+                return getLocalShareAvailability(request.shareType);
 
-                Share newShare = shareDatabase.get(newShareType).get(newShareID);
-                if (newShare.getAvailableCapacity() < shareCount) {
-                    return "FAILED:Not enough new shares available";
-                }
+            case PeerMessage.CHECK_SWAP_AVAILABILITY:
+                return checkSwapAvailability(request.shareID, request.shareType, request.count);
 
-                // Reduce capacity of new share
-                newShare.reduceCapacity(shareCount);
+            case PeerMessage.EXECUTE_SWAP:
+                return executeSwap(request.buyerID, request.oldShareID, request.oldShareType,
+                        request.shareID, request.shareType, request.count);
 
-                // Add share to buyer's holdings
-                serverImpl.getShareDatabase().get(newShareType).get(newShareID).addBuyer(buyerID);
+            case PeerMessage.PREPARE_SWAP:
+                return serverImpl.prepareSwap(request.buyerID, request.shareID, request.shareType, request.count);
 
-                // Add to buyer holdings
-                Map<String, Integer> buyerHoldings = serverImpl.getBuyerHoldings().get(buyerID);
-                if (buyerHoldings == null) {
-                    buyerHoldings = new HashMap<>();
-                    serverImpl.getBuyerHoldings().put(buyerID, buyerHoldings);
-                }
+            case PeerMessage.COMMIT_SWAP:
+                return serverImpl.commitSwap(request.holdId);
 
-                String uniqueNewKey = newShareType + "-" + newShareID;
-                buyerHoldings.put(uniqueNewKey, buyerHoldings.getOrDefault(uniqueNewKey, 0) + shareCount);
+            case PeerMessage.ABORT_SWAP:
+                return serverImpl.abortSwap(request.holdId);
 
-                System.out.println("Swap executed: Buyer " + buyerID + " acquired " + shareCount +
-                        " shares of " + uniqueNewKey);
+            case PeerMessage.GET_SHARES:
+                return serverImpl.localShares(request.buyerID);
 
-                return "SUCCESS:Swapped " + shareCount + " shares of " + newShareType + "-" + newShareID;
-            } catch (Exception e) {
-                System.err.println("Error executing swap: " + e.getMessage());
-                e.printStackTrace();
-                return "FAILED:Internal server error";
+            default:
+                return "INVALID_REQUEST";
+        }
+    }
+
+    private String getLocalShareAvailability(String shareType) {
+        StringBuilder result = new StringBuilder();
+        Map<String, Share> sharesOfType = shareDatabase.get(shareType);
+        if (sharesOfType != null) {
+            for (Share share : sharesOfType.values()) {
+                result.append("Share: ").append(share.getShareID())
+                        .append(", Type: ").append(share.getShareType())
+                        .append(", Available: ").append(share.getAvailableCapacity())
+                        .append("\n");
             }
         }
+        return result.toString().trim();
+    }
+
+    private String checkSwapAvailability(String shareID, String shareType, int requiredCount) {
+        return serverImpl.checkSwapAvailability(shareID, shareType, requiredCount);
+    }
+
+    private String executeSwap(String buyerID, String oldShareID, String oldShareType,
+                               String newShareID, String newShareType, int shareCount) {
+        try {
+            return serverImpl.executeRemoteSwap(buyerID, newShareID, newShareType, shareCount);
+        } catch (Exception e) {
+            System.err.println("Error executing swap: " + e.getMessage());
+            e.printStackTrace();
+            return "FAILED:Internal server error";
+        }
     }
-}
\ No newline at end of file
+}